@@ -0,0 +1,27 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import java.util.Date;
+
+// fully populated users, as they come out of the database, for the benchmarks that do not need one
+final class BenchmarkUsers
+{
+    private BenchmarkUsers()
+    {
+    }
+
+    static User user(long id)
+    {
+        User user = new User();
+        user.setId(id);
+        user.setName("User " + id);
+        user.setUsername("user" + id);
+        user.setPassword("password");
+        user.setToken("token-" + id);
+        user.setStatus(id % 2 == 0 ? UserStatus.ONLINE : UserStatus.OFFLINE);
+        user.setLogged_in(id % 2 == 0);
+        user.setBirthday(new Date(0));
+        user.setCreation_date(new Date(1_640_995_200_000L + id * 60_000));
+        return user;
+    }
+}
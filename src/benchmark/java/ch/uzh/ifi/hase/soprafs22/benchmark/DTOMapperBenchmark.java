@@ -0,0 +1,72 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPutDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.mapper.DTOMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DTO Mapper Benchmark
+ * Measures the MapStruct conversions every request goes through: the user
+ * entity to UserGetDTO (every GET) and the POST/PUT bodies to the entity.
+ * Run with: ./gradlew jmh -Pbenchmarks=DTOMapperBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DTOMapperBenchmark
+{
+    private User user;
+    private UserPostDTO userPostDTO;
+    private UserPutDTO userPutDTO;
+
+    @Setup
+    public void setUp()
+    {
+        user = BenchmarkUsers.user(1);
+
+        userPostDTO = new UserPostDTO();
+        userPostDTO.setName("Firstname Lastname");
+        userPostDTO.setUsername("username");
+        userPostDTO.setPassword("password");
+        userPostDTO.setBirthday(new Date(0));
+
+        userPutDTO = new UserPutDTO();
+        userPutDTO.setUsername("username");
+        userPutDTO.setBirthday(new Date(0));
+        userPutDTO.setToken("token");
+    }
+
+    @Benchmark
+    public UserGetDTO convertEntityToUserGetDTO()
+    {
+        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(user);
+    }
+
+    @Benchmark
+    public User convertUserPostDTOtoEntity()
+    {
+        return DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+    }
+
+    @Benchmark
+    public User convertUserPutDTOtoEntity()
+    {
+        return DTOMapper.INSTANCE.convertUserPutDTOtoEntity(userPutDTO);
+    }
+}
@@ -0,0 +1,200 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+import ch.uzh.ifi.hase.soprafs22.Application;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Execution Mode Benchmark
+ * Starts the server once on the Tomcat worker pool, once with
+ * users.execution.virtual-threads=true and once as the reactive stack (profile
+ * "reactive", WebFlux on Netty with R2DBC), each time against a fresh embedded
+ * H2 database seeded with users. Many concurrent clients then request
+ * GET /users/{id} for a while, and the throughput and the p50/p99 latency of
+ * all modes are printed side by side.
+ * Run with: ./gradlew executionModeBenchmark [-Pconcurrency=1000] [-Pseconds=20]
+ * Other server properties can be passed as system properties, e.g.
+ * -Dspring.datasource.hikari.maximum-pool-size=50.
+ */
+public class ExecutionModeBenchmark
+{
+    private static final int SEED_USERS = 1000;
+    private static final Pattern ID = Pattern.compile("\"id\"\\s*:\\s*(\\d+)");
+
+    public static void main(String[] args) throws Exception
+    {
+        int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        List<String> rows = new ArrayList<>();
+        for (String mode : new String[] {"platform", "virtual", "reactive"})
+        {
+            rows.add(run(mode, concurrency, seconds));
+        }
+
+        System.out.printf("%n%d concurrent clients, %d s per mode%n", concurrency, seconds);
+        System.out.printf("%-16s %12s %10s %10s %8s%n", "mode", "requests/s", "p50 ms", "p99 ms", "errors");
+        rows.forEach(System.out::println);
+    }
+
+    private static String run(String mode, int concurrency, int seconds) throws Exception
+    {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+                .profiles("reactive".equals(mode) ? new String[] {"reactive"} : new String[0])
+                // command line arguments, unlike .properties(), override application.properties
+                .run("--server.port=0",
+                        "--spring.datasource.url=jdbc:h2:mem:benchmark-" + mode,
+                        "--spring.r2dbc.url=r2dbc:h2:mem:///benchmark-" + mode,
+                        "--spring.h2.console.enabled=false",
+                        "--users.password.iterations=1000",
+                        "--users.execution.virtual-threads=" + "virtual".equals(mode),
+                        "--logging.level.root=WARN");
+        try
+        {
+            // settings that did not take effect would measure the same mode twice
+            if (context.containsBean("virtualThreadProtocolHandlerCustomizer") != "virtual".equals(mode))
+            {
+                throw new IllegalStateException("The server did not start in the " + mode + " mode");
+            }
+            // the reactive stack runs on Netty, the others on Tomcat
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            HttpClient client = HttpClient.newBuilder()
+                    .executor(Executors.newVirtualThreadPerTaskExecutor())
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .build();
+            String baseUrl = "http://localhost:" + port;
+            long[] ids = seed(client, baseUrl);
+
+            // a short warm up, then the measured run
+            load(client, baseUrl, ids, concurrency, 3);
+            long[] result = load(client, baseUrl, ids, concurrency, seconds);
+            int errors = (int) result[result.length - 1];
+            long[] latencies = Arrays.copyOf(result, result.length - 1);
+            Arrays.sort(latencies);
+            return String.format("%-16s %12.1f %10.2f %10.2f %8d", mode, latencies.length / (double) seconds,
+                    percentile(latencies, 0.50), percentile(latencies, 0.99), errors);
+        }
+        finally
+        {
+            context.close();
+        }
+    }
+
+    // POST /users is the creation endpoint both stacks have, returns the ids of the created users
+    private static long[] seed(HttpClient client, String baseUrl) throws Exception
+    {
+        long[] ids = new long[SEED_USERS];
+        for (int i = 0; i < SEED_USERS; i++)
+        {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/users"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(
+                            String.format("{\"name\":\"User %d\",\"username\":\"user%d\",\"password\":\"password\"}", i, i)))
+                    .build();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 201)
+            {
+                throw new IllegalStateException("Seeding failed with " + response.statusCode() + ": " + response.body());
+            }
+            Matcher id = ID.matcher(response.body());
+            if (!id.find())
+            {
+                throw new IllegalStateException("No id in " + response.body());
+            }
+            ids[i] = Long.parseLong(id.group(1));
+        }
+        return ids;
+    }
+
+    // returns the latencies in nanoseconds of all successful requests, followed by the number of errors
+    private static long[] load(HttpClient client, String baseUrl, long[] ids, int concurrency, int seconds) throws Exception
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor();
+        List<Future<long[]>> results = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++)
+        {
+            results.add(clients.submit(() -> {
+                long[] latencies = new long[1024];
+                int count = 0;
+                long errors = 0;
+                while (System.nanoTime() < deadline)
+                {
+                    long id = ids[ThreadLocalRandom.current().nextInt(ids.length)];
+                    HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/users/" + id)).GET().build();
+                    long start = System.nanoTime();
+                    try
+                    {
+                        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                        if (response.statusCode() != 200)
+                        {
+                            errors++;
+                            continue;
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        errors++;
+                        continue;
+                    }
+                    if (count == latencies.length)
+                    {
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    }
+                    latencies[count++] = System.nanoTime() - start;
+                }
+                long[] result = Arrays.copyOf(latencies, count + 1);
+                result[count] = errors;
+                return result;
+            }));
+        }
+
+        List<long[]> perClient = new ArrayList<>();
+        long errors = 0;
+        int total = 0;
+        for (Future<long[]> result : results)
+        {
+            long[] latencies = result.get();
+            errors += latencies[latencies.length - 1];
+            total += latencies.length - 1;
+            perClient.add(latencies);
+        }
+        clients.shutdown();
+
+        long[] merged = new long[total + 1];
+        int offset = 0;
+        for (long[] latencies : perClient)
+        {
+            System.arraycopy(latencies, 0, merged, offset, latencies.length - 1);
+            offset += latencies.length - 1;
+        }
+        merged[total] = errors;
+        return merged;
+    }
+
+    private static double percentile(long[] sortedLatencies, double percentile)
+    {
+        if (sortedLatencies.length == 0)
+        {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, index)] / 1e6;
+    }
+}
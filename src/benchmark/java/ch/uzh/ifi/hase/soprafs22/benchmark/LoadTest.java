@@ -0,0 +1,370 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+import ch.uzh.ifi.hase.soprafs22.Application;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Load Test
+ * Starts the server on a random port against a fresh embedded H2 database,
+ * creates a number of users over POST /users and then sends a mix of
+ * POST /users, POST /users/login, GET /users/{id}, GET /users and
+ * PUT /users/{id} at a fixed rate, all on localhost.
+ * Requests are started on a fixed schedule whether or not the earlier ones
+ * have been answered, and every latency is measured from the time the request
+ * was due, so a server that falls behind shows up in the latencies instead of
+ * lowering the rate. At most MAX_IN_FLIGHT requests are open at once.
+ * After a short warm up the throughput, the error rate, the p50/p99/p999
+ * latency of every operation and a latency histogram of all requests are
+ * printed.
+ * Run with: ./gradlew loadTest [-Pusers=1000] [-Prate=500] [-Pseconds=30]
+ * [-Pmix=create=5,login=10,get=60,list=15,update=10] [-Piterations=1000]
+ * [-Pengine=tomcat|jetty|undertow] [-Pprotocol=http1|h2c]
+ * Passwords are hashed with 1000 iterations by default, -Piterations=120000
+ * measures logins at the production cost.
+ * The user list is requested gzip compressed. ./gradlew serverBenchmark runs
+ * the same load on every combination of engine and protocol, one after
+ * another, for a comparison of their throughput and latencies.
+ */
+public class LoadTest
+{
+    private static final int MAX_IN_FLIGHT = 1000;
+    private static final int WARM_UP_SECONDS = 5;
+    private static final String PASSWORD = "password";
+    private static final Pattern ID = Pattern.compile("\"id\"\\s*:\\s*(\\d+)");
+    private static final Pattern TOKEN = Pattern.compile("\"token\"\\s*:\\s*\"([^\"]+)\"");
+    // upper bounds of the histogram buckets in milliseconds, the last bucket has none
+    private static final long[] BUCKETS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    private enum Operation
+    {
+        CREATE("POST /users", 201),
+        LOGIN("POST /users/login", 202),
+        GET("GET /users/{id}", 200),
+        LIST("GET /users", 200),
+        UPDATE("PUT /users/{id}", 204);
+
+        private final String label;
+        private final int expectedStatus;
+
+        Operation(String label, int expectedStatus)
+        {
+            this.label = label;
+            this.expectedStatus = expectedStatus;
+        }
+    }
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final AtomicLong nextUsername = new AtomicLong();
+    private HttpClient.Version negotiatedVersion;
+    private long[] ids;
+    private String[] tokens;
+
+    private LoadTest(HttpClient client, String baseUrl)
+    {
+        this.client = client;
+        this.baseUrl = baseUrl;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rate = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        Map<Operation, Integer> mix = parseMix(args.length > 3 ? args[3] : "create=5,login=10,get=60,list=15,update=10");
+        int iterations = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+        String engine = args.length > 5 ? args[5] : "tomcat";
+        String protocol = args.length > 6 ? args[6] : "http1";
+        if (!protocol.equals("http1") && !protocol.equals("h2c"))
+        {
+            throw new IllegalArgumentException("The protocol has to be http1 or h2c");
+        }
+
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+                // command line arguments, unlike .properties(), override application.properties
+                .run("--server.port=0",
+                        "--spring.datasource.url=jdbc:h2:mem:loadtest",
+                        "--spring.h2.console.enabled=false",
+                        "--users.password.iterations=" + iterations,
+                        "--users.server.engine=" + engine,
+                        "--server.http2.enabled=" + protocol.equals("h2c"),
+                        "--logging.level.root=WARN");
+        try
+        {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            HttpClient client = HttpClient.newBuilder()
+                    .executor(Executors.newVirtualThreadPerTaskExecutor())
+                    .connectTimeout(Duration.ofSeconds(10))
+                    // HTTP_2 on an http:// URL upgrades the connection to h2c
+                    .version(protocol.equals("h2c") ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                    .build();
+            LoadTest loadTest = new LoadTest(client, "http://localhost:" + port);
+            loadTest.seed(users);
+
+            loadTest.run(mix, rate, WARM_UP_SECONDS);
+            Map<Operation, Recorder> recorders = loadTest.run(mix, rate, seconds);
+            System.out.printf("%n%s, %s (negotiated %s)", engine, protocol, loadTest.negotiatedVersion);
+            report(recorders, users, rate, seconds);
+        }
+        finally
+        {
+            context.close();
+        }
+    }
+
+    private static Map<Operation, Integer> parseMix(String mix)
+    {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String entry : mix.split(","))
+        {
+            String[] weight = entry.trim().split("=");
+            if (weight.length != 2)
+            {
+                throw new IllegalArgumentException("The mix has to look like create=5,login=10,get=60,list=15,update=10");
+            }
+            weights.put(Operation.valueOf(weight[0].trim().toUpperCase()), Integer.parseInt(weight[1].trim()));
+        }
+        return weights;
+    }
+
+    // creates the users the other operations work on, remembering their ids and tokens
+    private void seed(int users) throws Exception
+    {
+        ids = new long[users];
+        tokens = new String[users];
+        for (int i = 0; i < users; i++)
+        {
+            HttpResponse<String> response = client.send(request(Operation.CREATE, "user" + i), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 201)
+            {
+                throw new IllegalStateException("Seeding failed with " + response.statusCode() + ": " + response.body());
+            }
+            Matcher id = ID.matcher(response.body());
+            Matcher token = TOKEN.matcher(response.body());
+            if (!id.find() || !token.find())
+            {
+                throw new IllegalStateException("No id or token in " + response.body());
+            }
+            ids[i] = Long.parseLong(id.group(1));
+            tokens[i] = token.group(1);
+            negotiatedVersion = response.version();
+        }
+    }
+
+    private Map<Operation, Recorder> run(Map<Operation, Integer> mix, int rate, int seconds) throws Exception
+    {
+        Operation[] operations = mix.keySet().toArray(new Operation[0]);
+        int[] cumulativeWeights = new int[operations.length];
+        int totalWeight = 0;
+        for (int i = 0; i < operations.length; i++)
+        {
+            totalWeight += mix.get(operations[i]);
+            cumulativeWeights[i] = totalWeight;
+        }
+
+        Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+        for (Operation operation : operations)
+        {
+            recorders.put(operation, new Recorder());
+        }
+
+        ExecutorService requests = Executors.newVirtualThreadPerTaskExecutor();
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long total = (long) rate * seconds;
+        long start = System.nanoTime();
+        for (long i = 0; i < total; i++)
+        {
+            long due = start + i * interval;
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0)
+            {
+                LockSupport.parkNanos(wait);
+            }
+
+            int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+            int index = 0;
+            while (cumulativeWeights[index] <= pick)
+            {
+                index++;
+            }
+            Operation operation = operations[index];
+            HttpRequest request = request(operation, "load" + nextUsername.incrementAndGet());
+
+            inFlight.acquire();
+            requests.execute(() -> {
+                try
+                {
+                    HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                    recorders.get(operation).record(System.nanoTime() - due, response.statusCode() == operation.expectedStatus);
+                }
+                catch (IOException | InterruptedException e)
+                {
+                    recorders.get(operation).record(System.nanoTime() - due, false);
+                }
+                finally
+                {
+                    inFlight.release();
+                }
+            });
+        }
+        requests.shutdown();
+        requests.awaitTermination(1, TimeUnit.MINUTES);
+        return recorders;
+    }
+
+    private HttpRequest request(Operation operation, String newUsername)
+    {
+        int user = ids == null ? 0 : ThreadLocalRandom.current().nextInt(ids.length);
+        switch (operation)
+        {
+            case CREATE:
+                return post("/users", String.format("{\"name\":\"Load Test\",\"username\":\"%s\",\"password\":\"%s\"}", newUsername, PASSWORD));
+            case LOGIN:
+                return post("/users/login", String.format("{\"username\":\"user%d\",\"password\":\"%s\"}", user, PASSWORD));
+            case GET:
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/users/" + ids[user])).GET().build();
+            case LIST:
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/users")).header("Accept-Encoding", "gzip").GET().build();
+            default:
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/users/" + ids[user]))
+                        .header("Content-Type", "application/json")
+                        .header("Authorization", "Bearer " + tokens[user])
+                        .PUT(HttpRequest.BodyPublishers.ofString("{\"birthday\":\"2000-01-01\"}"))
+                        .build();
+        }
+    }
+
+    private HttpRequest post(String path, String body)
+    {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private static void report(Map<Operation, Recorder> recorders, int users, int rate, int seconds)
+    {
+        Recorder all = new Recorder();
+        System.out.printf("%n%d users, %d requests/s target, %d s%n", users, rate, seconds);
+        System.out.printf("%-18s %10s %12s %8s %10s %10s %10s %10s%n",
+                "operation", "requests", "requests/s", "errors", "error %", "p50 ms", "p99 ms", "p999 ms");
+        for (Map.Entry<Operation, Recorder> entry : recorders.entrySet())
+        {
+            printRow(entry.getKey().label, entry.getValue(), seconds);
+            all.add(entry.getValue());
+        }
+        printRow("all", all, seconds);
+
+        System.out.printf("%nlatency histogram (all requests)%n");
+        long[] latencies = all.sortedLatencies();
+        int from = 0;
+        for (int bucket = 0; bucket <= BUCKETS_MILLIS.length; bucket++)
+        {
+            int to = bucket == BUCKETS_MILLIS.length ? latencies.length : upperIndex(latencies, TimeUnit.MILLISECONDS.toNanos(BUCKETS_MILLIS[bucket]));
+            String label = bucket == BUCKETS_MILLIS.length ? String.format(">= %d ms", BUCKETS_MILLIS[bucket - 1])
+                    : String.format("< %d ms", BUCKETS_MILLIS[bucket]);
+            double share = latencies.length == 0 ? 0 : 100.0 * (to - from) / latencies.length;
+            System.out.printf("%12s %10d %7.2f%% %s%n", label, to - from, share, "#".repeat((int) Math.round(share / 2)));
+            from = to;
+        }
+    }
+
+    private static void printRow(String label, Recorder recorder, int seconds)
+    {
+        long[] latencies = recorder.sortedLatencies();
+        long errors = recorder.errors();
+        System.out.printf("%-18s %10d %12.1f %8d %10.2f %10.2f %10.2f %10.2f%n", label, latencies.length,
+                latencies.length / (double) seconds, errors, latencies.length == 0 ? 0 : 100.0 * errors / latencies.length,
+                percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 0.999));
+    }
+
+    // index of the first latency that is not below the bound
+    private static int upperIndex(long[] sortedLatencies, long boundNanos)
+    {
+        int index = Arrays.binarySearch(sortedLatencies, boundNanos);
+        if (index < 0)
+        {
+            return -index - 1;
+        }
+        while (index > 0 && sortedLatencies[index - 1] == boundNanos)
+        {
+            index--;
+        }
+        return index;
+    }
+
+    private static double percentile(long[] sortedLatencies, double percentile)
+    {
+        if (sortedLatencies.length == 0)
+        {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, index)] / 1e6;
+    }
+
+    // latencies in nanoseconds of all requests of one operation, failed ones included
+    private static final class Recorder
+    {
+        private long[] latencies = new long[1024];
+        private int count;
+        private long errors;
+
+        synchronized void record(long latency, boolean success)
+        {
+            if (count == latencies.length)
+            {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latency;
+            if (!success)
+            {
+                errors++;
+            }
+        }
+
+        synchronized void add(Recorder other)
+        {
+            long[] otherLatencies = other.sortedLatencies();
+            if (count + otherLatencies.length > latencies.length)
+            {
+                latencies = Arrays.copyOf(latencies, count + otherLatencies.length);
+            }
+            System.arraycopy(otherLatencies, 0, latencies, count, otherLatencies.length);
+            count += otherLatencies.length;
+            errors += other.errors();
+        }
+
+        synchronized long[] sortedLatencies()
+        {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        synchronized long errors()
+        {
+            return errors;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+import ch.uzh.ifi.hase.soprafs22.security.PasswordHasher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Password Hashing Benchmark
+ * Measures how many logins per second the password check allows at a range of
+ * PBKDF2 costs (iterations), once on a single thread and once with one thread
+ * per core, which is how the PasswordHasher pool runs. Use it to pick
+ * users.password.iterations for the machine the server runs on.
+ * Run with: ./gradlew passwordBenchmark [-Pcosts=60000,120000]
+ */
+public class PasswordHashingBenchmark
+{
+    private static final String PASSWORD = "correct horse battery staple";
+    private static final long MEASURE_MILLIS = 3000;
+
+    public static void main(String[] args) throws Exception
+    {
+        String costs = args.length > 0 ? args[0] : "10000,60000,120000,310000,600000";
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("%d cores%n", cores);
+        System.out.printf("%12s %12s %16s %16s%n", "iterations", "ms/login", "logins/s/core", "logins/s total");
+        for (String cost : costs.split(","))
+        {
+            int iterations = Integer.parseInt(cost.trim());
+            String hash = PasswordHasher.encode(PASSWORD, iterations);
+            // warm up the JIT on this cost before measuring
+            measure(hash, 1, MEASURE_MILLIS / 3);
+
+            double singleThread = measure(hash, 1, MEASURE_MILLIS);
+            double allCores = measure(hash, cores, MEASURE_MILLIS);
+            System.out.printf("%12d %12.2f %16.1f %16.1f%n", iterations, 1000 / singleThread, allCores / cores, allCores);
+        }
+    }
+
+    // returns the verified passwords per second of all threads together
+    private static double measure(String hash, int threads, long millis) throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        List<Future<Long>> workers = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++)
+        {
+            workers.add(executor.submit(() -> {
+                long logins = 0;
+                while (System.nanoTime() < deadline)
+                {
+                    if (!PasswordHasher.matches(PASSWORD, hash))
+                    {
+                        throw new IllegalStateException("The password did not match its hash");
+                    }
+                    logins++;
+                }
+                return logins;
+            }));
+        }
+        long logins = 0;
+        for (Future<Long> worker : workers)
+        {
+            logins += worker.get();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        executor.shutdown();
+        return logins / seconds;
+    }
+}
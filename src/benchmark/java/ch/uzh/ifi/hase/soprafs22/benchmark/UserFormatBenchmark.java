@@ -0,0 +1,103 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.mapper.DTOMapper;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.type.CollectionType;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User Format Benchmark
+ * Compares JSON with the binary formats the user API also speaks (CBOR and
+ * Smile) for UserGetDTO lists of 100, 10k and 1M users: encodeUserList and
+ * decodeUserList measure the time, the encoded size of every list is logged
+ * once per trial ("Encoded size: ...") in the run log. The ObjectMappers are
+ * built the way the message converters build theirs.
+ * Run with: ./gradlew jmh -Pbenchmarks=UserFormatBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// a list of 1M users and its encoding need more than the default heap
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class UserFormatBenchmark
+{
+    private final Logger log = LoggerFactory.getLogger(UserFormatBenchmark.class);
+
+    @Param({"json", "cbor", "smile"})
+    private String format;
+
+    @Param({"100", "10000", "1000000"})
+    private int size;
+
+    private ObjectWriter writer;
+    private ObjectReader reader;
+    private List<UserGetDTO> users;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        ObjectMapper objectMapper = objectMapper(format);
+        CollectionType listType = objectMapper.getTypeFactory().constructCollectionType(List.class, UserGetDTO.class);
+        writer = objectMapper.writerFor(listType);
+        reader = objectMapper.readerFor(listType);
+        users = new ArrayList<>(size);
+        for (long id = 1; id <= size; id++)
+        {
+            users.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(BenchmarkUsers.user(id)));
+        }
+        encoded = writer.writeValueAsBytes(users);
+        log.info("Encoded size: {}, {} users: {} bytes ({} per user)", format, size, encoded.length,
+                String.format("%.1f", (double) encoded.length / size));
+    }
+
+    private static ObjectMapper objectMapper(String format)
+    {
+        switch (format)
+        {
+            case "json":
+                return Jackson2ObjectMapperBuilder.json().build();
+            case "cbor":
+                return Jackson2ObjectMapperBuilder.json().factory(new CBORFactory()).build();
+            case "smile":
+                return Jackson2ObjectMapperBuilder.smile().build();
+            default:
+                throw new IllegalArgumentException("Unknown format " + format);
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeUserList() throws IOException
+    {
+        return writer.writeValueAsBytes(users);
+    }
+
+    @Benchmark
+    public List<UserGetDTO> decodeUserList() throws IOException
+    {
+        return reader.readValue(encoded);
+    }
+}
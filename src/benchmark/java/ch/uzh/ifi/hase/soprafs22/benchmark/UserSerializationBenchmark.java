@@ -0,0 +1,62 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.mapper.DTOMapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User Serialization Benchmark
+ * Measures the Jackson serialization of UserGetDTO lists of the sizes the
+ * user list hands out (a single user, a default page and a full page). The
+ * ObjectMapper is built the way Spring MVC builds the one of its message
+ * converter.
+ * Run with: ./gradlew jmh -Pbenchmarks=UserSerializationBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserSerializationBenchmark
+{
+    @Param({"1", "100", "1000"})
+    private int size;
+
+    private ObjectWriter writer;
+    private List<UserGetDTO> users;
+
+    @Setup
+    public void setUp()
+    {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        writer = objectMapper.writerFor(objectMapper.getTypeFactory().constructCollectionType(List.class, UserGetDTO.class));
+        users = new ArrayList<>(size);
+        for (long id = 1; id <= size; id++)
+        {
+            users.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(BenchmarkUsers.user(id)));
+        }
+    }
+
+    @Benchmark
+    public byte[] serializeUserList() throws JsonProcessingException
+    {
+        return writer.writeValueAsBytes(users);
+    }
+}
@@ -0,0 +1,104 @@
+package ch.uzh.ifi.hase.soprafs22.benchmark;
+import ch.uzh.ifi.hase.soprafs22.Application;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User Service Benchmark
+ * Measures createUser, loginUser and getUserById of the UserService bean,
+ * with its transactions, caches and the embedded H2 database, but without the
+ * web layer. The application context is started once per fork without a web
+ * server and seeded with users. The password cost is lowered to 1000
+ * iterations so the numbers show the service and the database, the hashing
+ * itself is measured by passwordBenchmark.
+ * createUser inserts a new user on every call, so the table grows over the run.
+ * Run with: ./gradlew jmh -Pbenchmarks=UserServiceBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserServiceBenchmark
+{
+    private static final int SEED_USERS = 1000;
+    private static final String PASSWORD = "password";
+
+    private final AtomicLong nextUsername = new AtomicLong();
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private long[] ids;
+
+    @Setup
+    public void setUp()
+    {
+        context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                // command line arguments, unlike .properties(), override application.properties
+                .run("--spring.datasource.url=jdbc:h2:mem:jmh",
+                        "--spring.h2.console.enabled=false",
+                        "--users.password.iterations=1000",
+                        "--logging.level.root=WARN");
+        userService = context.getBean(UserService.class);
+
+        ids = new long[SEED_USERS];
+        for (int i = 0; i < SEED_USERS; i++)
+        {
+            ids[i] = userService.createUser(newUser("user" + i)).getId();
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        context.close();
+    }
+
+    @Benchmark
+    public User createUser()
+    {
+        return userService.createUser(newUser("jmh" + nextUsername.incrementAndGet()));
+    }
+
+    @Benchmark
+    public User loginUser()
+    {
+        User login = new User();
+        login.setUsername("user" + ThreadLocalRandom.current().nextInt(SEED_USERS));
+        login.setPassword(PASSWORD);
+        return userService.loginUser(login);
+    }
+
+    @Benchmark
+    public User getUserById()
+    {
+        return userService.getUserById(ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+    }
+
+    private static User newUser(String username)
+    {
+        User user = new User();
+        user.setName("Firstname Lastname");
+        user.setUsername(username);
+        user.setPassword(PASSWORD);
+        return user;
+    }
+}
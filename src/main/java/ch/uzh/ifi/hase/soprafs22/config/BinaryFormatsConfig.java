@@ -0,0 +1,32 @@
+package ch.uzh.ifi.hase.soprafs22.config;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+/**
+ * Binary Formats Configuration
+ * Lets Spring MVC read and write the DTOs as CBOR (application/cbor) and
+ * Smile (application/x-jackson-smile) next to JSON, chosen by the Accept and
+ * Content-Type headers. The converters replace the ones Spring MVC would add
+ * on its own, so that their ObjectMappers get the spring.jackson.* settings
+ * of the JSON one.
+ */
+@Configuration
+public class BinaryFormatsConfig
+{
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder)
+    {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
+
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder)
+    {
+        return new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory()).build());
+    }
+}
@@ -0,0 +1,88 @@
+package ch.uzh.ifi.hase.soprafs22.config;
+import org.ehcache.config.builders.CacheConfigurationBuilder;
+import org.ehcache.config.builders.ExpiryPolicyBuilder;
+import org.ehcache.config.builders.ResourcePoolsBuilder;
+import org.ehcache.core.config.DefaultConfiguration;
+import org.ehcache.expiry.ExpiryPolicy;
+import org.ehcache.jsr107.Eh107Configuration;
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.net.URI;
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Hibernate Cache Configuration
+ * Second-level cache of Hibernate on a local JCache (Ehcache) cache manager
+ * with three regions:
+ * - "user": User entities, by id (users.cache.user.*)
+ * - "user-queries": the ids found by the cacheable lookups of UserRepository
+ * (users.cache.queries.*)
+ * - the update timestamps Hibernate checks cached query results against,
+ * never expired, as an evicted timestamp would let outdated results through
+ * Every region holds at most max-entries entries on the heap and expires them
+ * ttl-seconds after they were written (expiry=write) or last read
+ * (expiry=access). Hibernate keeps the regions up to date on its own writes,
+ * the hit/miss/put counts per region are published as
+ * hibernate.second.level.cache.* and hibernate.cache.query.* metrics.
+ */
+@Configuration
+public class HibernateCacheConfig
+{
+    public static final String USER_REGION = "user";
+    public static final String USER_QUERY_REGION = "user-queries";
+    private static final String TIMESTAMPS_REGION = "default-update-timestamps-region";
+    private static final String DEFAULT_QUERY_REGION = "default-query-results-region";
+
+    @Bean(destroyMethod = "close")
+    public CacheManager hibernateCacheManager(@Value("${users.cache.user.max-entries:10000}") long userMaxEntries,
+                                              @Value("${users.cache.user.ttl-seconds:300}") long userTtlSeconds,
+                                              @Value("${users.cache.user.expiry:write}") String userExpiry,
+                                              @Value("${users.cache.queries.max-entries:10000}") long queryMaxEntries,
+                                              @Value("${users.cache.queries.ttl-seconds:60}") long queryTtlSeconds,
+                                              @Value("${users.cache.queries.expiry:write}") String queryExpiry)
+    {
+        // a cache manager of its own per application context, test contexts in the same JVM must not share regions;
+        // the configuration is passed along, Ehcache would otherwise read the URI as the location of an XML file
+        EhcacheCachingProvider provider = (EhcacheCachingProvider) Caching.getCachingProvider(EhcacheCachingProvider.class.getName());
+        CacheManager cacheManager = provider.getCacheManager(URI.create("urn:users:hibernate:" + UUID.randomUUID()),
+                new DefaultConfiguration(provider.getDefaultClassLoader()));
+        createCache(cacheManager, USER_REGION, userMaxEntries, expiry(userExpiry, userTtlSeconds));
+        createCache(cacheManager, USER_QUERY_REGION, queryMaxEntries, expiry(queryExpiry, queryTtlSeconds));
+        createCache(cacheManager, DEFAULT_QUERY_REGION, queryMaxEntries, expiry(queryExpiry, queryTtlSeconds));
+        createCache(cacheManager, TIMESTAMPS_REGION, 1000, ExpiryPolicyBuilder.noExpiration());
+        return cacheManager;
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer hibernateSecondLevelCacheCustomizer(CacheManager hibernateCacheManager)
+    {
+        return properties -> properties.put(ConfigSettings.CACHE_MANAGER, hibernateCacheManager);
+    }
+
+    private static void createCache(CacheManager cacheManager, String name, long maxEntries, ExpiryPolicy<Object, Object> expiry)
+    {
+        cacheManager.createCache(name, Eh107Configuration.fromEhcacheCacheConfiguration(
+                CacheConfigurationBuilder.newCacheConfigurationBuilder(Object.class, Object.class, ResourcePoolsBuilder.heap(maxEntries))
+                        .withExpiry(expiry)));
+    }
+
+    private static ExpiryPolicy<Object, Object> expiry(String expiry, long ttlSeconds)
+    {
+        switch (expiry)
+        {
+            case "write":
+                return ExpiryPolicyBuilder.timeToLiveExpiration(Duration.ofSeconds(ttlSeconds));
+            case "access":
+                return ExpiryPolicyBuilder.timeToIdleExpiration(Duration.ofSeconds(ttlSeconds));
+            default:
+                throw new IllegalArgumentException("The cache expiry has to be write or access, not " + expiry);
+        }
+    }
+}
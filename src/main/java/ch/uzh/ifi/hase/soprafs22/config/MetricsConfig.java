@@ -0,0 +1,22 @@
+package ch.uzh.ifi.hase.soprafs22.config;
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Metrics Configuration
+ * Spring Boot times every request (http.server.requests) and binds the Hikari
+ * pool and the Hibernate statistics on its own, everything is scraped from
+ * /actuator/prometheus. This adds the aspect that times the methods annotated
+ * with @Timed, which Boot does not register by itself.
+ */
+@Configuration
+public class MetricsConfig
+{
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry meterRegistry)
+    {
+        return new TimedAspect(meterRegistry);
+    }
+}
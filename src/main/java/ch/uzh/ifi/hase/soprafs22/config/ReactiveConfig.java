@@ -0,0 +1,52 @@
+package ch.uzh.ifi.hase.soprafs22.config;
+import ch.uzh.ifi.hase.soprafs22.controller.UserController;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.web.reactive.config.CorsRegistry;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+
+/**
+ * Reactive Configuration
+ * Settings of the reactive stack (profile "reactive", see
+ * application-reactive.properties). Tomcat is on the classpath for the servlet
+ * stack and would be picked for WebFlux as well, the reactive stack runs on
+ * Netty, which keeps idle connections without a thread each.
+ * Spring Boot drops the JDBC DataSource as soon as there is an R2DBC
+ * ConnectionFactory. The JPA side still creates the tables and backs the
+ * shared beans, so its DataSource is declared here explicitly.
+ */
+@Configuration
+@Profile("reactive")
+public class ReactiveConfig implements WebFluxConfigurer
+{
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory()
+    {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    @Bean
+    @ConfigurationProperties("spring.datasource")
+    public DataSourceProperties dataSourceProperties()
+    {
+        return new DataSourceProperties();
+    }
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource dataSource(DataSourceProperties dataSourceProperties)
+    {
+        return dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Override
+    public void addCorsMappings(CorsRegistry registry)
+    {
+        registry.addMapping("/**").allowedOrigins("*").allowedMethods("*").exposedHeaders(UserController.NEXT_CURSOR_HEADER);
+    }
+}
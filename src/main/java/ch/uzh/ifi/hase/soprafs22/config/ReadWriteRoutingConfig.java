@@ -0,0 +1,110 @@
+package ch.uzh.ifi.hase.soprafs22.config;
+import ch.uzh.ifi.hase.soprafs22.security.TokenAuthenticationInterceptor;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import javax.servlet.http.HttpServletRequest;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read/Write Routing Configuration
+ * Opt-in (users.datasource.replica.url) split of the database traffic: the
+ * primary pool is configured by spring.datasource.*, the replica pool takes
+ * its URL from users.datasource.replica.url and its pool settings from
+ * users.datasource.replica.hikari.*, everything else is shared with the
+ * primary. Read-only transactions go to the replica, see
+ * ReadWriteRoutingDataSource. Both pools are published as hikaricp.* metrics
+ * with pool="primary" and pool="replica".
+ * The session that has to read its own writes is the token of the request
+ * and the address of the client: a login or registration has no token yet,
+ * the reads following it carry the one it returned. Writes outside of a
+ * request, such as the presence flush, hold no reads on the primary.
+ * Locally the profile "replica" opens the in-memory H2 database a second time
+ * as the replica. H2 cannot replicate, so this replica never lags.
+ * The reactive stack keeps its own single DataSource (see ReactiveConfig).
+ */
+@Configuration
+@Profile("!reactive")
+@ConditionalOnProperty(name = "users.datasource.replica.url")
+public class ReadWriteRoutingConfig
+{
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties dataSourceProperties)
+    {
+        HikariDataSource dataSource = dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    @Bean
+    @ConfigurationProperties("users.datasource.replica.hikari")
+    public HikariDataSource replicaDataSource(DataSourceProperties dataSourceProperties,
+                                              @Value("${users.datasource.replica.url}") String url)
+    {
+        HikariDataSource dataSource = dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).url(url).build();
+        dataSource.setPoolName("replica");
+        return dataSource;
+    }
+
+    @Bean
+    public ReadWriteRoutingDataSource readWriteRoutingDataSource(@Qualifier("primaryDataSource") DataSource primaryDataSource,
+                                                                 @Qualifier("replicaDataSource") DataSource replicaDataSource,
+                                                                 @Value("${users.datasource.replica.max-lag-ms:200}") long maxLagMillis)
+    {
+        ReadWriteRoutingDataSource routingDataSource = new ReadWriteRoutingDataSource(primaryDataSource, replicaDataSource,
+                maxLagMillis, ReadWriteRoutingConfig::requestSessions);
+        routingDataSource.afterPropertiesSet();
+        return routingDataSource;
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReadWriteRoutingDataSource readWriteRoutingDataSource)
+    {
+        return new LazyConnectionDataSourceProxy(readWriteRoutingDataSource);
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer writeDetectingHibernatePropertiesCustomizer(ReadWriteRoutingDataSource readWriteRoutingDataSource)
+    {
+        return hibernateProperties -> hibernateProperties.put(AvailableSettings.STATEMENT_INSPECTOR,
+                new WriteDetectingStatementInspector(readWriteRoutingDataSource));
+    }
+
+    static Collection<String> requestSessions()
+    {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (!(attributes instanceof ServletRequestAttributes))
+        {
+            return Collections.emptyList();
+        }
+        HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+        List<String> sessions = new ArrayList<>(2);
+        String token = TokenAuthenticationInterceptor.token(request.getHeader(HttpHeaders.AUTHORIZATION));
+        if (token != null && !token.isEmpty())
+        {
+            sessions.add("token:" + token);
+        }
+        sessions.add("address:" + request.getRemoteAddr());
+        return sessions;
+    }
+}
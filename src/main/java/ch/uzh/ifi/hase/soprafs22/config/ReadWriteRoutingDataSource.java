@@ -0,0 +1,166 @@
+package ch.uzh.ifi.hase.soprafs22.config;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import javax.sql.DataSource;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Read/Write Routing DataSource
+ * Hands out connections of the replica pool to read-only transactions and
+ * connections of the primary pool to everything else. For a while after a
+ * session committed a write (the maximum replica lag) its read-only
+ * transactions still go to the primary, so it sees what it just wrote even
+ * if the replica has not caught up yet. The sessions of the current thread
+ * are supplied from outside (ReadWriteRoutingConfig), other sessions keep
+ * reading from the replica.
+ * Only transactions that executed an insert, update, delete or merge count
+ * as a write, they are reported by WriteDetectingStatementInspector. A
+ * read-write transaction that only read leaves the routing as it is.
+ * The target is chosen when a connection is requested. JPA requests it when
+ * the transaction begins, before the read-only flag is set, so this has to be
+ * wrapped in a LazyConnectionDataSourceProxy, which defers that request to
+ * the first statement.
+ * Every routing decision is counted as users.datasource.routing, tagged with
+ * the target and the reason. The counters are bound like any MeterBinder: the
+ * meter registry depends on every DataSource, so the DataSource must not
+ * depend on the registry.
+ */
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource implements MeterBinder
+{
+    public enum Target
+    {
+        PRIMARY, REPLICA
+    }
+
+    private final Supplier<Collection<String>> sessions;
+    private final LongAdder readWrite = new LongAdder();
+    private final LongAdder readOnly = new LongAdder();
+    private final LongAdder lagFallback = new LongAdder();
+    // sessions that committed a write less than the maximum lag ago
+    private final Cache<String, Boolean> recentWriters;
+    // resource key of the sessions the current transaction wrote for
+    private final Object transactionWriters = new Object();
+
+    public ReadWriteRoutingDataSource(DataSource primary, DataSource replica, long maxLagMillis,
+                                      Supplier<Collection<String>> sessions)
+    {
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(Target.PRIMARY, primary);
+        targets.put(Target.REPLICA, replica);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        this.sessions = sessions;
+        this.recentWriters = Caffeine.newBuilder().expireAfterWrite(maxLagMillis, TimeUnit.MILLISECONDS).build();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry)
+    {
+        routingCounter(meterRegistry, readWrite, Target.PRIMARY, "read_write");
+        routingCounter(meterRegistry, readOnly, Target.REPLICA, "read_only");
+        routingCounter(meterRegistry, lagFallback, Target.PRIMARY, "replica_lag");
+    }
+
+    private static void routingCounter(MeterRegistry meterRegistry, LongAdder count, Target target, String reason)
+    {
+        FunctionCounter.builder("users.datasource.routing", count, LongAdder::sum)
+                .description("Connections handed out by the read/write routing, by target and reason")
+                .tag("target", target.name().toLowerCase())
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey()
+    {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly())
+        {
+            readWrite.increment();
+            return Target.PRIMARY;
+        }
+        if (wroteRecently(sessions.get()))
+        {
+            lagFallback.increment();
+            return Target.PRIMARY;
+        }
+        readOnly.increment();
+        return Target.REPLICA;
+    }
+
+    private boolean wroteRecently(Collection<String> readers)
+    {
+        for (String reader : readers)
+        {
+            if (recentWriters.getIfPresent(reader) != null)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // a statement of the current thread wrote, the sessions are remembered once its transaction committed
+    public void recordWrite()
+    {
+        if (!TransactionSynchronizationManager.isSynchronizationActive())
+        {
+            remember(sessions.get());
+            return;
+        }
+        if (TransactionSynchronizationManager.hasResource(transactionWriters))
+        {
+            return;
+        }
+        Collection<String> writers = sessions.get();
+        if (writers.isEmpty())
+        {
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(transactionWriters, writers);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization()
+        {
+            @Override
+            public void suspend()
+            {
+                TransactionSynchronizationManager.unbindResourceIfPossible(transactionWriters);
+            }
+
+            @Override
+            public void resume()
+            {
+                TransactionSynchronizationManager.bindResource(transactionWriters, writers);
+            }
+
+            @Override
+            public void afterCommit()
+            {
+                remember(writers);
+            }
+
+            @Override
+            public void afterCompletion(int status)
+            {
+                TransactionSynchronizationManager.unbindResourceIfPossible(transactionWriters);
+            }
+        });
+    }
+
+    private void remember(Collection<String> writers)
+    {
+        for (String writer : writers)
+        {
+            recentWriters.put(writer, Boolean.TRUE);
+        }
+    }
+}
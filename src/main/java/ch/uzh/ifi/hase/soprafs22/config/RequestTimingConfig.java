@@ -0,0 +1,59 @@
+package ch.uzh.ifi.hase.soprafs22.config;
+import ch.uzh.ifi.hase.soprafs22.timing.RequestTimingAspect;
+import ch.uzh.ifi.hase.soprafs22.timing.ServerTimingFilter;
+import ch.uzh.ifi.hase.soprafs22.timing.SlowRequestLog;
+import ch.uzh.ifi.hase.soprafs22.timing.SlowRequestsEndpoint;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+
+/**
+ * Request Timing Configuration
+ * Opt-in (users.timing.enabled=true) per-request breakdown of where the time
+ * of a request goes: binding, controller, mapper, service, every repository
+ * method, commit and writing of the response (see RequestTimings).
+ * - users.timing.server-timing-header sends it in a Server-Timing header
+ * - requests of at least users.timing.slow-threshold-ms are kept in a ring
+ * buffer of users.timing.slow-buffer-size entries, served on
+ * /actuator/slowrequests
+ * Servlet stack only, the reactive profile has no request thread to collect
+ * the timings on.
+ */
+@Configuration
+@Profile("!reactive")
+@ConditionalOnProperty(name = "users.timing.enabled", havingValue = "true")
+public class RequestTimingConfig
+{
+    @Bean
+    public RequestTimingAspect requestTimingAspect()
+    {
+        return new RequestTimingAspect();
+    }
+
+    @Bean
+    public SlowRequestLog slowRequestLog(@Value("${users.timing.slow-threshold-ms:500}") long slowThresholdMillis,
+                                         @Value("${users.timing.slow-buffer-size:100}") int slowBufferSize)
+    {
+        return new SlowRequestLog(slowThresholdMillis, slowBufferSize);
+    }
+
+    @Bean
+    public SlowRequestsEndpoint slowRequestsEndpoint(SlowRequestLog slowRequestLog)
+    {
+        return new SlowRequestsEndpoint(slowRequestLog);
+    }
+
+    // ahead of the other filters, so their time counts as well
+    @Bean
+    public FilterRegistrationBean<ServerTimingFilter> serverTimingFilter(SlowRequestLog slowRequestLog,
+                                                                         @Value("${users.timing.server-timing-header:true}") boolean serverTimingHeader)
+    {
+        FilterRegistrationBean<ServerTimingFilter> registration = new FilterRegistrationBean<>(new ServerTimingFilter(slowRequestLog, serverTimingHeader));
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+}
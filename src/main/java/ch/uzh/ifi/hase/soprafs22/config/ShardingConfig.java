@@ -0,0 +1,130 @@
+package ch.uzh.ifi.hase.soprafs22.config;
+import ch.uzh.ifi.hase.soprafs22.sharding.ShardAwareSequenceGenerator;
+import ch.uzh.ifi.hase.soprafs22.sharding.ShardRoutingDataSource;
+import ch.uzh.ifi.hase.soprafs22.sharding.ShardScatterExecutor;
+import ch.uzh.ifi.hase.soprafs22.sharding.ShardingRepositoryAspect;
+import ch.uzh.ifi.hase.soprafs22.sharding.UserShards;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.init.DatabasePopulatorUtils;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.PlatformTransactionManager;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sharding Configuration
+ * Opt-in (users.sharding.urls) horizontal split of the USER table over
+ * several databases, one pool per URL in users.sharding.urls. The pools take
+ * their settings from users.sharding.hikari.*, everything else is shared with
+ * spring.datasource.*, and are published as hikaricp.* metrics with
+ * pool="shard-<n>". Which user lives on which shard is decided by UserShards,
+ * the UserRepository calls are routed by ShardingRepositoryAspect. Calls for
+ * all users run on the bounded ShardScatterExecutor (users.sharding.scatter-*).
+ * - every shard is created from db/user-shard-schema.sql, Hibernate neither
+ * exports nor validates a schema as there is no single database to do it on
+ * - the query cache is off, a cached result only holds for the shard it was
+ * read from. The ids are unique over all shards, so the entity cache stays.
+ * - the order of the shards in users.sharding.urls and their number must not
+ * change once users are stored
+ * Locally the profile "sharded" stands in three in-memory H2 databases for the
+ * shards. It cannot be combined with the read replica routing (both replace
+ * the DataSource), and the reactive stack keeps its own single DataSource.
+ */
+@Configuration
+@Profile("!reactive")
+@ConditionalOnProperty(name = "users.sharding.urls")
+public class ShardingConfig
+{
+    public static final String SHARD_SCHEMA = "db/user-shard-schema.sql";
+
+    @Bean
+    public UserShards userShards(@Value("${users.sharding.urls}") List<String> urls)
+    {
+        return new UserShards(urls.size());
+    }
+
+    @Bean
+    public ShardRoutingDataSource shardRoutingDataSource(DataSourceProperties dataSourceProperties,
+                                                         @Value("${users.sharding.urls}") List<String> urls,
+                                                         Environment environment)
+    {
+        Binder binder = Binder.get(environment);
+        ResourceDatabasePopulator schema = new ResourceDatabasePopulator(new ClassPathResource(SHARD_SCHEMA));
+        List<HikariDataSource> shards = new ArrayList<>();
+        for (String url : urls)
+        {
+            HikariDataSource dataSource = dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).url(url.trim()).build();
+            binder.bind("users.sharding.hikari", Bindable.ofInstance(dataSource));
+            dataSource.setPoolName("shard-" + shards.size());
+            DatabasePopulatorUtils.execute(schema, dataSource);
+            shards.add(dataSource);
+        }
+        ShardRoutingDataSource routingDataSource = new ShardRoutingDataSource(shards);
+        routingDataSource.afterPropertiesSet();
+        return routingDataSource;
+    }
+
+    // the pools are no beans, so Spring Boot does not publish their metrics; Hikari takes the registry of a running pool
+    @Bean
+    public MeterBinder shardPoolMetrics(ShardRoutingDataSource shardRoutingDataSource, UserShards userShards)
+    {
+        return meterRegistry -> {
+            for (int shard = 0; shard < userShards.count(); shard++)
+            {
+                ((HikariDataSource) shardRoutingDataSource.getShard(shard)).setMetricRegistry(meterRegistry);
+            }
+        };
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ShardRoutingDataSource shardRoutingDataSource)
+    {
+        return new LazyConnectionDataSourceProxy(shardRoutingDataSource);
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer shardingHibernatePropertiesCustomizer(UserShards userShards)
+    {
+        return hibernateProperties -> {
+            hibernateProperties.put(ShardAwareSequenceGenerator.SHARD_COUNT, userShards.count());
+            hibernateProperties.put(AvailableSettings.HBM2DDL_AUTO, "none");
+            hibernateProperties.put(AvailableSettings.USE_QUERY_CACHE, false);
+        };
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ShardScatterExecutor shardScatterExecutor(@Value("${users.sharding.scatter-threads:16}") int scatterThreads,
+                                                     @Value("${users.sharding.scatter-queue-capacity:64}") int queueCapacity)
+    {
+        return new ShardScatterExecutor(scatterThreads, queueCapacity);
+    }
+
+    @Bean
+    public ShardingRepositoryAspect shardingRepositoryAspect(UserShards userShards,
+                                                             ObjectProvider<PlatformTransactionManager> transactionManager,
+                                                             ObjectProvider<DataSource> dataSource,
+                                                             ObjectProvider<EntityManagerFactory> entityManagerFactory,
+                                                             ShardScatterExecutor shardScatterExecutor)
+    {
+        return new ShardingRepositoryAspect(userShards, transactionManager, dataSource, entityManagerFactory, shardScatterExecutor);
+    }
+}
@@ -0,0 +1,48 @@
+package ch.uzh.ifi.hase.soprafs22.config;
+import org.apache.catalina.startup.Tomcat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual Thread Configuration
+ * Opt-in execution mode (users.execution.virtual-threads=true) that runs every
+ * servlet request on a virtual thread of its own instead of the bounded Tomcat
+ * worker pool. Blocking JPA/H2 calls then park a cheap virtual thread instead
+ * of holding a platform thread. The async MVC executor (used by the NDJSON
+ * export) is switched to virtual threads as well.
+ * The number of concurrent database calls stays bounded by the Hikari pool,
+ * and the CPU bound password hashing keeps its own platform thread pool.
+ */
+@Configuration
+@ConditionalOnProperty(name = "users.execution.virtual-threads", havingValue = "true")
+public class VirtualThreadConfig
+{
+    @Configuration
+    @ConditionalOnClass(Tomcat.class)
+    static class TomcatVirtualThreadConfig
+    {
+        private final Logger log = LoggerFactory.getLogger(TomcatVirtualThreadConfig.class);
+
+        @Bean
+        public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer()
+        {
+            log.info("Running Tomcat requests on virtual threads");
+            return protocolHandler -> protocolHandler.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        }
+    }
+
+    @Bean(name = TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+    public AsyncTaskExecutor applicationTaskExecutor()
+    {
+        return new TaskExecutorAdapter(Executors.newVirtualThreadPerTaskExecutor());
+    }
+}
@@ -0,0 +1,87 @@
+package ch.uzh.ifi.hase.soprafs22.config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.jetty.JettyServerCustomizer;
+import org.springframework.boot.web.embedded.jetty.JettyServletWebServerFactory;
+import org.springframework.boot.web.embedded.tomcat.TomcatConnectorCustomizer;
+import org.springframework.boot.web.embedded.tomcat.TomcatContextCustomizer;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.embedded.undertow.UndertowBuilderCustomizer;
+import org.springframework.boot.web.embedded.undertow.UndertowDeploymentInfoCustomizer;
+import org.springframework.boot.web.embedded.undertow.UndertowServletWebServerFactory;
+import org.springframework.boot.web.servlet.server.ServletWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.ClassUtils;
+import java.util.stream.Collectors;
+
+/**
+ * Web Server Configuration
+ * Selects the embedded server of the servlet stack with users.server.engine
+ * (tomcat, jetty or undertow) instead of by the classpath. Only Tomcat is
+ * shipped by default, Jetty and Undertow are added by building with
+ * -PserverEngines and are always there for the benchmarks. Everything else is
+ * configured with the usual server.* properties and applies to whichever
+ * engine runs:
+ * - server.http2.enabled serves HTTP/2 over cleartext (h2c, upgraded from
+ * HTTP/1.1) next to HTTP/1.1
+ * - server.compression.* gzips large responses such as the user list. Tomcat
+ * leaves responses with a strong ETag uncompressed, so the compressed and
+ * the plain body never share one, the user list has a weak ETag
+ * - server.tomcat.*, server.jetty.* and server.undertow.* set the threads,
+ * connection limits and keep-alive of their engine
+ * The reactive profile keeps running on Netty. Virtual threads
+ * (users.execution.virtual-threads) are only supported on Tomcat.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class WebServerConfig
+{
+    private final Logger log = LoggerFactory.getLogger(WebServerConfig.class);
+
+    @Bean
+    public ServletWebServerFactory servletWebServerFactory(@Value("${users.server.engine:tomcat}") String engine,
+                                                           ObjectProvider<TomcatConnectorCustomizer> tomcatConnectorCustomizers,
+                                                           ObjectProvider<TomcatContextCustomizer> tomcatContextCustomizers,
+                                                           ObjectProvider<TomcatProtocolHandlerCustomizer<?>> tomcatProtocolHandlerCustomizers,
+                                                           ObjectProvider<JettyServerCustomizer> jettyServerCustomizers,
+                                                           ObjectProvider<UndertowDeploymentInfoCustomizer> undertowDeploymentInfoCustomizers,
+                                                           ObjectProvider<UndertowBuilderCustomizer> undertowBuilderCustomizers)
+    {
+        log.info("Serving the user API on {}", engine);
+        switch (engine)
+        {
+            case "tomcat":
+                TomcatServletWebServerFactory tomcat = new TomcatServletWebServerFactory();
+                tomcat.getTomcatConnectorCustomizers().addAll(tomcatConnectorCustomizers.orderedStream().collect(Collectors.toList()));
+                tomcat.getTomcatContextCustomizers().addAll(tomcatContextCustomizers.orderedStream().collect(Collectors.toList()));
+                tomcat.getTomcatProtocolHandlerCustomizers().addAll(tomcatProtocolHandlerCustomizers.orderedStream().collect(Collectors.toList()));
+                return tomcat;
+            case "jetty":
+                requireEngine("org.eclipse.jetty.server.Server", engine);
+                JettyServletWebServerFactory jetty = new JettyServletWebServerFactory();
+                jetty.getServerCustomizers().addAll(jettyServerCustomizers.orderedStream().collect(Collectors.toList()));
+                return jetty;
+            case "undertow":
+                requireEngine("io.undertow.Undertow", engine);
+                UndertowServletWebServerFactory undertow = new UndertowServletWebServerFactory();
+                undertow.getDeploymentInfoCustomizers().addAll(undertowDeploymentInfoCustomizers.orderedStream().collect(Collectors.toList()));
+                undertow.getBuilderCustomizers().addAll(undertowBuilderCustomizers.orderedStream().collect(Collectors.toList()));
+                return undertow;
+            default:
+                throw new IllegalArgumentException("The server engine has to be tomcat, jetty or undertow, not " + engine);
+        }
+    }
+
+    private static void requireEngine(String serverClass, String engine)
+    {
+        if (!ClassUtils.isPresent(serverClass, WebServerConfig.class.getClassLoader()))
+        {
+            throw new IllegalStateException("The server engine " + engine + " is not on the classpath, build with -PserverEngines");
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package ch.uzh.ifi.hase.soprafs22.config;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Write Detecting Statement Inspector
+ * Sees every statement Hibernate prepares: flushed inserts and updates, the
+ * bulk updates of UserRepository and native queries alike. Reports the ones
+ * that change data to the ReadWriteRoutingDataSource, so only transactions
+ * that actually wrote hold the reads of their session on the primary.
+ */
+public class WriteDetectingStatementInspector implements StatementInspector
+{
+    private static final String[] WRITES = {"insert", "update", "delete", "merge"};
+
+    private final ReadWriteRoutingDataSource routingDataSource;
+
+    public WriteDetectingStatementInspector(ReadWriteRoutingDataSource routingDataSource)
+    {
+        this.routingDataSource = routingDataSource;
+    }
+
+    @Override
+    public String inspect(String sql)
+    {
+        if (isWrite(sql))
+        {
+            routingDataSource.recordWrite();
+        }
+        return sql;
+    }
+
+    static boolean isWrite(String sql)
+    {
+        int start = 0;
+        // skips whitespace and the comments hibernate.use_sql_comments puts in front of the statement
+        while (start < sql.length())
+        {
+            if (Character.isWhitespace(sql.charAt(start)))
+            {
+                start++;
+            }
+            else if (sql.startsWith("/*", start) && sql.indexOf("*/", start + 2) >= 0)
+            {
+                start = sql.indexOf("*/", start + 2) + 2;
+            }
+            else
+            {
+                break;
+            }
+        }
+        for (String write : WRITES)
+        {
+            if (sql.regionMatches(true, start, write, 0, write.length()))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
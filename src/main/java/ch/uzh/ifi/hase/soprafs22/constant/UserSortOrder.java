@@ -0,0 +1,38 @@
+package ch.uzh.ifi.hase.soprafs22.constant;
+
+/**
+ * Orders in which the user list can be paged through.
+ * The value of the "sort_by" request parameter is matched against
+ * {@link #getParameter()}.
+ */
+public enum UserSortOrder {
+  ID("id"), USERNAME("username"), CREATION_DATE("creation_date");
+
+  private final String parameter;
+
+  UserSortOrder(String parameter) {
+    this.parameter = parameter;
+  }
+
+  public String getParameter() {
+    return parameter;
+  }
+
+  /**
+   * Resolves the "sort_by" request parameter, defaulting to {@link #ID}.
+   *
+   * @param parameter the raw request parameter, may be null
+   * @return the matching sort order or null if the parameter is unknown
+   */
+  public static UserSortOrder fromParameter(String parameter) {
+    if (parameter == null || parameter.isEmpty()) {
+      return ID;
+    }
+    for (UserSortOrder sortOrder : values()) {
+      if (sortOrder.parameter.equalsIgnoreCase(parameter)) {
+        return sortOrder;
+      }
+    }
+    return null;
+  }
+}
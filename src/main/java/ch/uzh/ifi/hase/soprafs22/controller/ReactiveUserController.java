@@ -0,0 +1,108 @@
+package ch.uzh.ifi.hase.soprafs22.controller;
+import ch.uzh.ifi.hase.soprafs22.constant.UserSortOrder;
+import ch.uzh.ifi.hase.soprafs22.entity.UserRow;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserTokenDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs22.security.TokenAuthenticationInterceptor;
+import ch.uzh.ifi.hase.soprafs22.service.ReactiveUserService;
+import ch.uzh.ifi.hase.soprafs22.service.UserCursor;
+import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reactive User Controller
+ * WebFlux version of the UserController, active with the "reactive" profile
+ * instead of it. It keeps the contract of /users, /users/export, /users/{id},
+ * POST /users, /users/login and /users/logout/{id}, so both stacks can be put
+ * under the same load.
+ */
+@RestController
+@Profile("reactive")
+public class ReactiveUserController {
+
+    private final ReactiveUserService userService;
+
+    ReactiveUserController(ReactiveUserService userService) {
+        this.userService = userService;
+    }
+
+    //returns one page of users, the position of the next page is handed out in the X-Next-Cursor header
+    @GetMapping("/users")
+    public Mono<ResponseEntity<List<UserGetDTO>>> getAllUsers(@RequestParam(required = false, name = "sort_by") String sortMethod,
+                                                              @RequestParam(required = false, name = "limit") Integer limit,
+                                                              @RequestParam(required = false, name = "after") String after)
+    {
+        UserSortOrder sortOrder = UserSortOrder.fromParameter(sortMethod);
+        if (sortOrder == null)
+        {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Users can only be sorted by id, username or creation_date"));
+        }
+        return userService.getUsers(sortOrder, after, limit)
+                .collectList()
+                .map(users -> {
+                    List<UserGetDTO> userGetDTOs = new ArrayList<>(users.size());
+                    for (UserRow user : users)
+                    {userGetDTOs.add(DTOMapper.INSTANCE.convertUserRowToUserGetDTO(user));}
+
+                    ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+                    // a full page means there may be more users after the last one
+                    if (!users.isEmpty() && users.size() == UserService.pageSize(limit))
+                    {
+                        response.header(UserController.NEXT_CURSOR_HEADER, UserCursor.of(sortOrder, users.get(users.size() - 1)).encode());
+                    }
+                    return response.body(userGetDTOs);
+                });
+    }
+
+    //streams all users as newline-delimited JSON, the database is read as fast as the client consumes the lines
+    @GetMapping(value = "/users/export", produces = UserController.NDJSON_VALUE)
+    public Flux<UserGetDTO> exportUsers()
+    {
+        return userService.exportUsers().map(DTOMapper.INSTANCE::convertUserRowToUserGetDTO);
+    }
+
+    //returns a specific user corresponding to the id
+    @GetMapping("/users/{id}")
+    public Mono<UserGetDTO> getUserByID(@PathVariable Long id)
+    {
+        return userService.getUserById(id).map(DTOMapper.INSTANCE::convertUserRowToUserGetDTO);
+    }
+
+    //creation of a user
+    @PostMapping("/users")
+    @ResponseStatus(HttpStatus.CREATED)
+    public Mono<UserTokenDTO> createUser(@RequestBody UserPostDTO userPostDTO)
+    {
+        UserRow userInput = DTOMapper.INSTANCE.convertUserPostDTOtoUserRow(userPostDTO);
+        return userService.createUser(userInput).map(DTOMapper.INSTANCE::convertUserRowToUserTokenDTO);
+    }
+
+    //login of a user
+    @PostMapping("/users/login")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public Mono<UserTokenDTO> loginUser(@RequestBody UserPostDTO userPostDTO)
+    {
+        return userService.loginUser(userPostDTO.getUsername(), userPostDTO.getPassword())
+                .map(DTOMapper.INSTANCE::convertUserRowToUserTokenDTO);
+    }
+
+    //logout of a user, only the user him-/herself can log out
+    @PutMapping("/users/logout/{id}")
+    public Mono<UserGetDTO> logoutUser(@PathVariable Long id,
+                                       @RequestHeader(name = HttpHeaders.AUTHORIZATION, required = false) String authorization)
+    {
+        return userService.logoutUser(id, TokenAuthenticationInterceptor.token(authorization))
+                .map(DTOMapper.INSTANCE::convertUserRowToUserGetDTO);
+    }
+}
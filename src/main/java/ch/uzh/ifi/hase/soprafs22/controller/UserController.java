@@ -1,14 +1,53 @@
 package ch.uzh.ifi.hase.soprafs22.controller;
+import ch.uzh.ifi.hase.soprafs22.constant.UserSortOrder;
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.entity.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserBatchResultDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserLookupDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPostDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPutDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserTokenDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs22.security.RequiresToken;
+import ch.uzh.ifi.hase.soprafs22.service.PresenceRegistry;
+import ch.uzh.ifi.hase.soprafs22.service.UserChangeCounter;
+import ch.uzh.ifi.hase.soprafs22.service.UserCreationResult;
+import ch.uzh.ifi.hase.soprafs22.service.UserCursor;
+import ch.uzh.ifi.hase.soprafs22.service.UserJsonCache;
+import ch.uzh.ifi.hase.soprafs22.service.UserPatch;
 import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import ch.uzh.ifi.hase.soprafs22.timing.ServerTimingFilter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * User Controller
@@ -16,92 +55,474 @@ import java.util.List;
  * the user.
  * The controller will receive the request and delegate the execution to the
  * UserService and finally return the result.
+ * A single user and the user list carry an ETag, a conditional GET whose
+ * If-None-Match still matches is answered with 304 before any user is loaded.
+ * The tag of the user list is weak, the server compresses it.
+ * A single user is served as the JSON bytes of the UserJsonCache if they are
+ * cached.
+ * PATCH /users/{id} takes a JSON merge patch (RFC 7396) and only changes the
+ * fields it contains. PUT and PATCH with an If-Match that names none of the
+ * user's current ETags are answered with 412 and change nothing.
+ * POST /users/lookup returns many users by id at once, ids without a user are
+ * reported as missing instead of failing the call.
+ * Next to JSON every endpoint also speaks CBOR and Smile, chosen by the Accept
+ * and Content-Type headers (BinaryFormatsConfig). A single user in a binary
+ * format is not taken from the UserJsonCache and has an ETag of its own.
  */
 @RestController
+@Profile("!reactive")
 public class UserController {
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+    public static final String MERGE_PATCH_VALUE = "application/merge-patch+json";
+    public static final String SMILE_VALUE = "application/x-jackson-smile";
+    public static final MediaType SMILE = MediaType.parseMediaType(SMILE_VALUE);
+    // the representations of a single user, JSON is preferred when the client accepts several equally
+    private static final List<MediaType> USER_MEDIA_TYPES = List.of(MediaType.APPLICATION_JSON, MediaType.APPLICATION_CBOR, SMILE);
+
     private final UserService userService;
+    private final PresenceRegistry presenceRegistry;
+    private final UserChangeCounter userChangeCounter;
+    private final UserJsonCache userJsonCache;
+    private final DTOMapper dtoMapper;
+    private final ObjectWriter userWriter;
+    private final ObjectWriter ndjsonWriter;
+    private final ObjectReader dateReader;
+    private final ObjectWriter cborUserWriter;
+    private final ObjectWriter smileUserWriter;
 
-    UserController(UserService userService) {
+    UserController(UserService userService, PresenceRegistry presenceRegistry, UserChangeCounter userChangeCounter,
+                   UserJsonCache userJsonCache, DTOMapper dtoMapper, ObjectMapper objectMapper,
+                   Jackson2ObjectMapperBuilder objectMapperBuilder) {
         this.userService = userService;
+        this.presenceRegistry = presenceRegistry;
+        this.userChangeCounter = userChangeCounter;
+        this.userJsonCache = userJsonCache;
+        this.dtoMapper = dtoMapper;
+        this.userWriter = objectMapper.writerFor(UserGetDTO.class);
+        // flushing after every user would turn each line into its own write on the socket
+        this.ndjsonWriter = objectMapper.writerFor(UserGetDTO.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        // reads the birthday of a patch in the same formats as the birthday of a UserPutDTO
+        this.dateReader = objectMapper.readerFor(Date.class);
+        this.cborUserWriter = objectMapperBuilder.factory(new CBORFactory()).build().writerFor(UserGetDTO.class);
+        this.smileUserWriter = objectMapperBuilder.factory(new SmileFactory()).build().writerFor(UserGetDTO.class);
     }
 
-    //returns a list with all users
+    //returns one page of users, the position of the next page is handed out in the X-Next-Cursor header
     @GetMapping("/users")
+    @ResponseBody
+    public ResponseEntity<List<UserGetDTO>> getAllUsers(@RequestParam(required = false, name = "sort_by") String sortMethod,
+                                                        @RequestParam(required = false, name = "limit") Integer limit,
+                                                        @RequestParam(required = false, name = "after") String after,
+                                                        @RequestHeader(required = false, name = HttpHeaders.IF_NONE_MATCH) String ifNoneMatch)
+    {
+        UserSortOrder sortOrder = UserSortOrder.fromParameter(sortMethod);
+        if (sortOrder == null)
+        {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Users can only be sorted by id, username or creation_date");
+        }
+        // nothing in the list changed since the client's copy if the change counter still stands at its tag
+        // weak, as the list may be compressed and the encodings must not share a strong tag (RFC 9110)
+        String eTag = "W/" + quote(userChangeCounter.tag());
+        if (matches(ifNoneMatch, eTag))
+        {return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();}
+        // fetch one page of users in the internal representation
+        List<UserSummary> users = userService.getUsers(sortOrder, after, limit);
+        List<UserGetDTO> userGetDTOs = new ArrayList<>(users.size());
+        // convert each user to the API representation
+        for (UserSummary user : users)
+        {userGetDTOs.add(convertUserSummaryToUserGetDTO(user));}
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(eTag);
+        // a full page means there may be more users after the last one
+        if (!users.isEmpty() && users.size() == UserService.pageSize(limit))
+        {
+            response.header(NEXT_CURSOR_HEADER, UserCursor.of(sortOrder, users.get(users.size() - 1)).encode());
+        }
+        return response.body(userGetDTOs);
+    }
+
+    //streams all users as newline-delimited JSON, one user per line
+    @GetMapping(value = "/users/export", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportUsers(HttpServletRequest request)
+    {
+        // the body must not be held back by the ServerTimingFilter
+        ServerTimingFilter.markStreaming(request);
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = ndjsonWriter.getFactory().createGenerator(outputStream))
+            {
+                // every line is terminated by the newline below, not by Jackson's root value separator
+                generator.setRootValueSeparator(null);
+                userService.exportUsers(user -> {
+                    try
+                    {
+                        ndjsonWriter.writeValue(generator, convertEntityToUserGetDTO(user));
+                        generator.writeRaw('\n');
+                    }
+                    catch (IOException e)
+                    {throw new UncheckedIOException(e);}
+                });
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON_VALUE)).body(body);
+    }
+
+    //returns the ids of all users that are currently online, answered from memory
+    @GetMapping("/users/online")
     @ResponseStatus(HttpStatus.OK)
     @ResponseBody
+    public List<Long> getOnlineUsers()
+    {
+        return userService.getOnlineUserIds();
+    }
 
-    public List<UserGetDTO> getAllUsers(@RequestParam(required = false, name = "sort_by") String sortMethod)
+    //returns the users with the given ids in one call, the ids without a user are listed as missing
+    @PostMapping("/users/lookup")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public UserLookupDTO lookupUsers(@RequestBody List<Long> ids)
     {
-        // fetch all users in the internal representation
-        List<User> users = userService.getUsers();
-        List<UserGetDTO> userGetDTOs = new ArrayList<>();
-        // convert each user to the API representation
-        for (User user : users)
-        {userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));}
-        return userGetDTOs;
+        Map<Long, UserSummary> usersById = userService.getUserSummaries(ids);
+        List<Long> missing = new ArrayList<>();
+        for (Long id : new LinkedHashSet<>(ids))
+        {
+            if (!usersById.containsKey(id))
+            {missing.add(id);}
+        }
+
+        List<UserGetDTO> userGetDTOs = dtoMapper.convertUserSummariesToUserGetDTOs(new ArrayList<>(usersById.values()));
+        for (UserGetDTO userGetDTO : userGetDTOs)
+        {presenceRegistry.applyTo(userGetDTO);}
+
+        UserLookupDTO userLookupDTO = new UserLookupDTO();
+        userLookupDTO.setUsers(userGetDTOs);
+        userLookupDTO.setMissing(missing);
+        return userLookupDTO;
     }
 
     //returns a specific user corresponding to the id
-    @GetMapping("/users/{id}")
-    @ResponseStatus(HttpStatus.OK)
+    @GetMapping(value = "/users/{id}", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, SMILE_VALUE})
     @ResponseBody
-    public UserGetDTO getUserByID(@PathVariable Long id)
+    public ResponseEntity<byte[]> getUserByID(@PathVariable Long id,
+                                              @RequestHeader(required = false, name = HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+                                              @RequestHeader(required = false, name = HttpHeaders.ACCEPT) String accept)
+            throws HttpMediaTypeNotAcceptableException
+    {
+        MediaType mediaType = userMediaType(accept);
+        if (!MediaType.APPLICATION_JSON.equals(mediaType))
+        {return getBinaryUser(id, mediaType, ifNoneMatch);}
+
+        UserJsonCache.Entry cached = userJsonCache.get(id);
+        if (cached != null)
+        {
+            if (matches(ifNoneMatch, cached.getETag()))
+            {return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(cached.getETag()).varyBy(HttpHeaders.ACCEPT).build();}
+            return ResponseEntity.ok().eTag(cached.getETag()).varyBy(HttpHeaders.ACCEPT).contentType(MediaType.APPLICATION_JSON).body(cached.getJson());
+        }
+
+        if (ifNoneMatch != null)
+        {
+            // the presence is read before the version, a login racing the request can only make the tag outdated
+            boolean online = presenceRegistry.isOnline(id, false);
+            Long version = userService.getUserVersion(id);
+            String eTag = userETag(id, version, online);
+            if (version != null && matches(ifNoneMatch, eTag))
+            {return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).varyBy(HttpHeaders.ACCEPT).build();}
+        }
+
+        Object stamp = userJsonCache.stamp(id);
+        UserSummary user;
+        UserGetDTO userGetDTO;
+        byte[] json;
+        try
+        {
+            //get the proper user depending on the id
+            user = userService.getUserSummary(id);
+            // convert internal representation of user back to API
+            userGetDTO = convertUserSummaryToUserGetDTO(user);
+            json = userWriter.writeValueAsBytes(userGetDTO);
+        }
+        catch (IOException e)
+        {
+            userJsonCache.release(id, stamp);
+            throw new UncheckedIOException(e);
+        }
+        catch (RuntimeException e)
+        {
+            // a 404 must not leave the pending entry behind, unknown ids would fill the cache
+            userJsonCache.release(id, stamp);
+            throw e;
+        }
+        String eTag = userETag(id, user.getVersion(), userGetDTO.getStatus() == UserStatus.ONLINE);
+        userJsonCache.put(id, json, eTag, stamp);
+        return ResponseEntity.ok().eTag(eTag).varyBy(HttpHeaders.ACCEPT).contentType(MediaType.APPLICATION_JSON).body(json);
+    }
+
+    private ResponseEntity<byte[]> getBinaryUser(Long id, MediaType mediaType, String ifNoneMatch)
+    {
+        UserSummary user = userService.getUserSummary(id);
+        UserGetDTO userGetDTO = convertUserSummaryToUserGetDTO(user);
+        String eTag = binaryETag(userETag(id, user.getVersion(), userGetDTO.getStatus() == UserStatus.ONLINE), mediaType);
+        if (matches(ifNoneMatch, eTag))
+        {return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).varyBy(HttpHeaders.ACCEPT).build();}
+        byte[] body;
+        try
+        {body = (MediaType.APPLICATION_CBOR.equals(mediaType) ? cborUserWriter : smileUserWriter).writeValueAsBytes(userGetDTO);}
+        catch (IOException e)
+        {throw new UncheckedIOException(e);}
+        return ResponseEntity.ok().eTag(eTag).varyBy(HttpHeaders.ACCEPT).contentType(mediaType).body(body);
+    }
+
+    // the representation of a single user with the highest quality in the Accept header (RFC 9110), 406 if there is none
+    static MediaType userMediaType(String accept) throws HttpMediaTypeNotAcceptableException
+    {
+        if (accept == null || accept.isBlank())
+        {return MediaType.APPLICATION_JSON;}
+        List<MediaType> ranges;
+        try
+        {ranges = MediaType.parseMediaTypes(accept);}
+        catch (InvalidMediaTypeException e)
+        {throw new HttpMediaTypeNotAcceptableException(USER_MEDIA_TYPES);}
+        MediaType best = null;
+        double bestQuality = 0;
+        for (MediaType mediaType : USER_MEDIA_TYPES)
+        {
+            double quality = quality(mediaType, ranges);
+            if (quality > bestQuality)
+            {
+                best = mediaType;
+                bestQuality = quality;
+            }
+        }
+        if (best == null)
+        {throw new HttpMediaTypeNotAcceptableException(USER_MEDIA_TYPES);}
+        return best;
+    }
+
+    // the quality the most specific range including the media type gives it, 0 if none includes it
+    private static double quality(MediaType mediaType, List<MediaType> ranges)
+    {
+        MediaType match = null;
+        for (MediaType range : ranges)
+        {
+            if (range.includes(mediaType) && (match == null || specificity(range) > specificity(match)))
+            {match = range;}
+        }
+        return match == null ? 0 : match.getQualityValue();
+    }
+
+    private static int specificity(MediaType range)
+    {
+        return range.isWildcardType() ? 0 : range.isWildcardSubtype() ? 1 : 2;
+    }
+
+    // the same user in another format is another representation and needs another ETag
+    static String binaryETag(String eTag, MediaType mediaType)
     {
-        //get the proper user depending on the id
-        User user = userService.getUserById(id);
-        // convert internal representation of user back to API
-        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(user);
+        return eTag.substring(0, eTag.length() - 1) + "-" + mediaType.getSubtype() + "\"";
+    }
+
+    // the version covers every column written through the entity, the status is kept by the presence registry
+    static String userETag(Long id, Long version, boolean online)
+    {
+        return quote(id + "-" + version + (online ? "-online" : "-offline"));
+    }
+
+    private static String quote(String tag)
+    {
+        return "\"" + tag + "\"";
+    }
+
+    // If-None-Match compares weakly, a W/ prefix is ignored on both sides
+    static boolean matches(String ifNoneMatch, String eTag)
+    {
+        if (ifNoneMatch == null)
+        {return false;}
+        for (String candidate : ifNoneMatch.split(","))
+        {
+            String tag = candidate.trim();
+            if (tag.equals("*") || opaqueTag(tag).equals(opaqueTag(eTag)))
+            {return true;}
+        }
+        return false;
+    }
+
+    private static String opaqueTag(String eTag)
+    {
+        return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+    }
+
+    /*
+     * The versions of the user the tags in If-Match stand for, null without If-Match or with "*".
+     * If-Match compares strongly, so a weak tag stands for no version, and neither does a tag of
+     * another user or one this controller did not hand out. The status part of a tag is not
+     * compared, an update does not depend on whether the user is online.
+     */
+    static Set<Long> ifMatchVersions(Long id, String ifMatch)
+    {
+        if (ifMatch == null)
+        {return null;}
+        Set<Long> versions = new LinkedHashSet<>();
+        for (String candidate : ifMatch.split(","))
+        {
+            String tag = candidate.trim();
+            if (tag.equals("*"))
+            {return null;}
+            if (tag.length() < 2 || !tag.startsWith("\"") || !tag.endsWith("\""))
+            {continue;}
+            String[] parts = tag.substring(1, tag.length() - 1).split("-");
+            if (parts.length < 3 || !parts[0].equals(String.valueOf(id)))
+            {continue;}
+            try
+            {
+                versions.add(Long.valueOf(parts[1]));
+            }
+            catch (NumberFormatException ex)
+            {
+                // not one of our tags, it stands for no version
+            }
+        }
+        return versions;
     }
 
     //creation of a user
     @PostMapping("/users")
     @ResponseStatus(HttpStatus.CREATED)
     @ResponseBody
-    public UserGetDTO createUser(@RequestBody UserPostDTO userPostDTO)
+    public UserTokenDTO createUser(@RequestBody UserPostDTO userPostDTO)
     {
         // convert API user to internal representation
-        User userInput = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+        User userInput = dtoMapper.convertUserPostDTOtoEntity(userPostDTO);
         // create user
         User createdUser = userService.createUser(userInput);
-        // convert internal representation of user back to API
-        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(createdUser);
+        // convert internal representation of user back to API, with the token the new user authenticates with
+        return dtoMapper.convertEntityToUserTokenDTO(createdUser);
+    }
+
+    //creation of many users at once, the result of every user is reported separately
+    @PostMapping("/users/batch")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public List<UserBatchResultDTO> createUsers(@RequestBody List<UserPostDTO> userPostDTOs)
+    {
+        List<User> userInputs = new ArrayList<>(userPostDTOs.size());
+        for (UserPostDTO userPostDTO : userPostDTOs)
+        {userInputs.add(dtoMapper.convertUserPostDTOtoEntity(userPostDTO));}
+
+        List<UserCreationResult> results = userService.createUsers(userInputs);
+        List<UserBatchResultDTO> resultDTOs = new ArrayList<>(results.size());
+        for (int index = 0; index < results.size(); index++)
+        {
+            UserCreationResult result = results.get(index);
+            UserBatchResultDTO resultDTO = new UserBatchResultDTO();
+            resultDTO.setIndex(index);
+            resultDTO.setStatus(result.getStatus().value());
+            resultDTO.setUsername(result.getUser().getUsername());
+            resultDTO.setMessage(result.getMessage());
+            if (result.isCreated())
+            {resultDTO.setUser(dtoMapper.convertEntityToUserGetDTO(result.getUser()));}
+            resultDTOs.add(resultDTO);
+        }
+        return resultDTOs;
     }
 
     //login of a user
     @PostMapping("/users/login")
     @ResponseStatus(HttpStatus.ACCEPTED)
     @ResponseBody
-    public UserGetDTO loginUser(@RequestBody UserPostDTO userPostDTO)
+    public UserTokenDTO loginUser(@RequestBody UserPostDTO userPostDTO)
     {
         // convert API user to internal representation
-        User userInput = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+        User userInput = dtoMapper.convertUserPostDTOtoEntity(userPostDTO);
         // login user
         User foundUser = userService.loginUser(userInput);
-        // convert internal representation of user back to API
-        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(foundUser);
+        // convert internal representation of user back to API, with the token of the session
+        return dtoMapper.convertEntityToUserTokenDTO(foundUser);
     }
 
-    //logout of a user
+    //logout of a user, only the user him-/herself can log out
     @PutMapping("/users/logout/{id}")
+    @RequiresToken
     @ResponseBody
     public UserGetDTO logoutUser(@PathVariable Long id)
     {
         User loggedOutUser = userService.logoutUser(id);
-        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(loggedOutUser);
+        return dtoMapper.convertEntityToUserGetDTO(loggedOutUser);
     }
 
-    //update of a user
+    //update of a user, only the user him-/herself can update the profile
     @PutMapping("/users/{id}")
+    @RequiresToken
     @ResponseStatus(HttpStatus.NO_CONTENT)
     @ResponseBody
-    public void updateUser(@PathVariable Long id, @RequestBody UserPutDTO userPutDTO)
+    public void updateUser(@PathVariable Long id, @RequestBody UserPutDTO userPutDTO,
+                           @RequestHeader(required = false, name = HttpHeaders.IF_MATCH) String ifMatch)
     {
         //update user in UserService
-        User userInput = DTOMapper.INSTANCE.convertUserPutDTOtoEntity(userPutDTO);
-        userService.updateUser(id,userInput);
+        User userInput = dtoMapper.convertUserPutDTOtoEntity(userPutDTO);
+        userService.updateUser(id, userInput, ifMatchVersions(id, ifMatch));
     }
 
+    //partial update of a user, only the fields in the merge patch are changed
+    @PatchMapping(value = "/users/{id}", consumes = {MERGE_PATCH_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    @RequiresToken
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    @ResponseBody
+    public void patchUser(@PathVariable Long id, @RequestBody JsonNode mergePatch,
+                          @RequestHeader(required = false, name = HttpHeaders.IF_MATCH) String ifMatch)
+    {
+        userService.patchUser(id, toUserPatch(mergePatch), ifMatchVersions(id, ifMatch));
+    }
 
+    // only username and birthday can be patched, null removes a field and the username can not be removed
+    private UserPatch toUserPatch(JsonNode mergePatch)
+    {
+        if (!mergePatch.isObject())
+        {throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A merge patch of a user has to be a JSON object");}
+        UserPatch userPatch = new UserPatch();
+        Iterator<String> fieldNames = mergePatch.fieldNames();
+        while (fieldNames.hasNext())
+        {
+            String fieldName = fieldNames.next();
+            JsonNode value = mergePatch.get(fieldName);
+            switch (fieldName)
+            {
+                case "username":
+                    if (!value.isTextual() || value.asText().isBlank())
+                    {throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The username has to be a non-empty string");}
+                    userPatch.setUsername(value.asText());
+                    break;
+                case "birthday":
+                    userPatch.setBirthday(value.isNull() ? null : readDate(value));
+                    break;
+                default:
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The field " + fieldName + " can not be patched");
+            }
+        }
+        return userPatch;
+    }
 
+    private Date readDate(JsonNode value)
+    {
+        try
+        {return dateReader.readValue(value);}
+        catch (IOException e)
+        {throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The birthday is no valid date");}
+    }
+
+    // the status of a loaded user can lag behind the presence registry until its next flush
+    private UserGetDTO convertEntityToUserGetDTO(User user)
+    {
+        UserGetDTO userGetDTO = dtoMapper.convertEntityToUserGetDTO(user);
+        presenceRegistry.applyTo(userGetDTO);
+        return userGetDTO;
+    }
+
+    private UserGetDTO convertUserSummaryToUserGetDTO(UserSummary userSummary)
+    {
+        UserGetDTO userGetDTO = dtoMapper.convertUserSummaryToUserGetDTO(userSummary);
+        presenceRegistry.applyTo(userGetDTO);
+        return userGetDTO;
+    }
 }
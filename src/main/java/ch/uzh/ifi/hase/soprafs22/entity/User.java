@@ -2,6 +2,12 @@ package ch.uzh.ifi.hase.soprafs22.entity;
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import com.fasterxml.jackson.annotation.JsonIdentityInfo;
 import com.fasterxml.jackson.annotation.ObjectIdGenerators;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 import javax.persistence.*;
 import java.io.Serializable;
 import java.util.Date;
@@ -15,16 +21,40 @@ import java.util.Date;
  * - nullable = false -> this cannot be left empty
  * - unique = true -> this value must be unique across the database -> composes
  * the primary key
+ * - status and logged_in are only written on insert and by the PresenceRegistry,
+ * changing them on a loaded entity does not issue an UPDATE
+ * - ids come from a pooled sequence (50 ids per round trip), IDENTITY columns
+ * would make Hibernate give up JDBC batching for inserts. With sharding the
+ * id also carries the shard of the user (ShardAwareSequenceGenerator)
+ * - the (creation_date, id) index backs the keyset pagination of the user list,
+ * username and id are already covered by their unique/primary key indexes
+ * - the table name is quoted, USER is a keyword since H2 2.x
+ * - the version is raised by every update through the entity and is part of
+ * the ETag of the user, the bulk updates of the presence and password columns
+ * leave it alone (the status is versioned by the PresenceRegistry instead and
+ * the password is never handed out)
+ * - loaded users are kept in the "user" region of the second-level cache
+ * (HibernateCacheConfig), read-write so a transaction never reads an entry
+ * another one is just changing
+ * - updates only set the columns that changed (@DynamicUpdate), a patched
+ * username does not rewrite the password, token and the other columns
  */
 @Entity
-@Table(name = "USER")
+@Cacheable
+@DynamicUpdate
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "user")
+@Table(name = "`USER`", indexes = @Index(name = "IDX_USER_CREATION_DATE_ID", columnList = "creation_date, id"))
 @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "id")
 public class User implements Serializable {
 
   private static final long serialVersionUID = 1L;
 
   @Id
-  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @GeneratedValue(generator = "USER_SEQ")
+  @GenericGenerator(name = "USER_SEQ", strategy = "ch.uzh.ifi.hase.soprafs22.sharding.ShardAwareSequenceGenerator", parameters = {
+          @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "USER_SEQ"),
+          @Parameter(name = SequenceStyleGenerator.INCREMENT_PARAM, value = "50"),
+          @Parameter(name = SequenceStyleGenerator.INITIAL_PARAM, value = "1")})
   private Long id;
 
   @Column(nullable = false)
@@ -39,10 +69,10 @@ public class User implements Serializable {
   @Column(nullable = false, unique = true)
   private String token;
 
-  @Column(nullable = false)
+  @Column(nullable = false, updatable = false)
   private UserStatus status;
 
-  @Column(nullable = false)
+  @Column(nullable = false, updatable = false)
   private boolean logged_in;
 
 
@@ -52,6 +82,10 @@ public class User implements Serializable {
   @Column(nullable = false)
   private Date creation_date;
 
+  @Version
+  @Column(nullable = false)
+  private Long version;
+
 
   public Long getId() {return id;}
 
@@ -96,4 +130,8 @@ public class User implements Serializable {
   public boolean getLogged_in() {return logged_in;}
 
   public void setLogged_in(boolean logged_in) {this.logged_in = logged_in;}
+
+  public Long getVersion() {return version;}
+
+  public void setVersion(Long version) {this.version = version;}
 }
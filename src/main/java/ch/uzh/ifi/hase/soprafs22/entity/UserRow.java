@@ -0,0 +1,86 @@
+package ch.uzh.ifi.hase.soprafs22.entity;
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+
+/**
+ * User Row
+ * Read model of the user table for the reactive stack (profile "reactive").
+ * The table itself is defined and created by the User entity, R2DBC only
+ * reads and writes its rows, so every field mirrors a column of User.
+ * - status is stored as the ordinal of UserStatus, like the JPA mapping does
+ * - R2DBC reads timestamps as LocalDateTime, the accessors convert them from
+ * and to Date in the default time zone, as JDBC does for User
+ * - all queries are written out in ReactiveUserRepository, the table name is
+ * never derived from this class: the JPA mapping creates it quoted and in
+ * lower case ("user"), as USER is a keyword in H2
+ */
+@Table("user")
+public class UserRow {
+
+  @Id
+  private Long id;
+
+  private String name;
+
+  private String username;
+
+  private String password;
+
+  private String token;
+
+  private Integer status;
+
+  private boolean logged_in;
+
+  private LocalDateTime birthday;
+
+  private LocalDateTime creation_date;
+
+  public Long getId() {return id;}
+
+  public void setId(Long id) {this.id = id;}
+
+  public String getName() {return name;}
+
+  public void setName(String name) {this.name = name;}
+
+  public String getUsername() {return username;}
+
+  public void setUsername(String username) {this.username = username;}
+
+  public String getPassword() {return password;}
+
+  public void setPassword(String password) {this.password = password;}
+
+  public String getToken() {return token;}
+
+  public void setToken(String token) {this.token = token;}
+
+  public UserStatus getStatus() {return status == null ? null : UserStatus.values()[status];}
+
+  public void setStatus(UserStatus status) {this.status = status == null ? null : status.ordinal();}
+
+  public boolean getLogged_in() {return logged_in;}
+
+  public void setLogged_in(boolean logged_in) {this.logged_in = logged_in;}
+
+  public Date getBirthday() {return toDate(birthday);}
+
+  public void setBirthday(Date birthday) {this.birthday = toLocalDateTime(birthday);}
+
+  public Date getCreation_date() {return toDate(creation_date);}
+
+  public void setCreation_date(Date creation_date) {this.creation_date = toLocalDateTime(creation_date);}
+
+  public static LocalDateTime toLocalDateTime(Date date) {
+    return date == null ? null : LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault());
+  }
+
+  private static Date toDate(LocalDateTime dateTime) {
+    return dateTime == null ? null : Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+  }
+}
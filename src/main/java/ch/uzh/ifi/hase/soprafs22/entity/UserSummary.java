@@ -0,0 +1,55 @@
+package ch.uzh.ifi.hase.soprafs22.entity;
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import java.util.Date;
+
+/**
+ * User Summary
+ * Read-only projection of User with the columns UserGetDTO shows, plus the
+ * version for the ETag. The read queries of UserRepository create it with a
+ * constructor expression, so neither the password nor the token is read, and
+ * as it is no entity Hibernate keeps no snapshot of it for dirty checking.
+ */
+public class UserSummary {
+
+  private final Long id;
+  private final String name;
+  private final String username;
+  private final Date birthday;
+  private final Date creation_date;
+  private final UserStatus status;
+  private final boolean logged_in;
+  private final Long version;
+
+  public UserSummary(Long id, String name, String username, Date birthday, Date creation_date, UserStatus status,
+                     boolean logged_in, Long version) {
+    this.id = id;
+    this.name = name;
+    this.username = username;
+    this.birthday = birthday;
+    this.creation_date = creation_date;
+    this.status = status;
+    this.logged_in = logged_in;
+    this.version = version;
+  }
+
+  public static UserSummary of(User user) {
+    return new UserSummary(user.getId(), user.getName(), user.getUsername(), user.getBirthday(), user.getCreation_date(),
+            user.getStatus(), user.getLogged_in(), user.getVersion());
+  }
+
+  public Long getId() {return id;}
+
+  public String getName() {return name;}
+
+  public String getUsername() {return username;}
+
+  public Date getBirthday() {return birthday;}
+
+  public Date getCreation_date() {return creation_date;}
+
+  public UserStatus getStatus() {return status;}
+
+  public boolean getLogged_in() {return logged_in;}
+
+  public Long getVersion() {return version;}
+}
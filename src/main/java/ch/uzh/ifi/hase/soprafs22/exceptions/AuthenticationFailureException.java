@@ -0,0 +1,35 @@
+package ch.uzh.ifi.hase.soprafs22.exceptions;
+import org.springframework.http.HttpStatus;
+
+public final class AuthenticationFailureException extends UserFailureException {
+
+    private static final String UNKNOWN_USER = "unknown_user";
+    private static final String BAD_PASSWORD = "bad_password";
+
+    private AuthenticationFailureException(HttpStatus status, String type, String reason) {
+        super(status, type, reason);
+    }
+
+    public static AuthenticationFailureException unknownUser() {
+        return new AuthenticationFailureException(HttpStatus.UNAUTHORIZED, UNKNOWN_USER,
+                "The username is not correct or the user does not exist");
+    }
+
+    public static AuthenticationFailureException badPassword() {
+        return new AuthenticationFailureException(HttpStatus.UNAUTHORIZED, BAD_PASSWORD, "The password is not correct");
+    }
+
+    public static AuthenticationFailureException invalidToken() {
+        return new AuthenticationFailureException(HttpStatus.UNAUTHORIZED, "invalid_token",
+                "The token is not correct or the user is not logged in");
+    }
+
+    public static AuthenticationFailureException foreignToken() {
+        return new AuthenticationFailureException(HttpStatus.FORBIDDEN, "foreign_token", "The token does not belong to this user");
+    }
+
+    @Override
+    public boolean isLoginFailure() {
+        return UNKNOWN_USER.equals(getType()) || BAD_PASSWORD.equals(getType());
+    }
+}
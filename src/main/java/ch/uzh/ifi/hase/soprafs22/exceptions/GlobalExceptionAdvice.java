@@ -1,6 +1,14 @@
 package ch.uzh.ifi.hase.soprafs22.exceptions;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.ErrorDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -14,11 +22,42 @@ import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+// servlet stack only, WebFlux renders ResponseStatusExceptions itself
 @ControllerAdvice(annotations = RestController.class)
+@Profile("!reactive")
 public class GlobalExceptionAdvice extends ResponseEntityExceptionHandler {
 
+    private static final String UNIQUE_VIOLATION = "23505";
+    public static final String FAILURES_METRIC = "users.failures";
+
     private final Logger log = LoggerFactory.getLogger(GlobalExceptionAdvice.class);
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Counter> failureCounters = new ConcurrentHashMap<>();
+
+    // the global registry stands in where metrics are not configured, e.g. in sliced tests
+    public GlobalExceptionAdvice(ObjectProvider<MeterRegistry> meterRegistry) {
+        this.meterRegistry = meterRegistry.getIfAvailable(() -> Metrics.globalRegistry);
+    }
+
+    // expected failures are answered right here, without logging and without the error page dispatch of sendError()
+    @ExceptionHandler(UserFailureException.class)
+    public ResponseEntity<ErrorDTO> handleUserFailureException(UserFailureException ex) {
+        if (!ex.isLoginFailure()) {
+            failureCounters.computeIfAbsent(ex.getType(),
+                    type -> Counter.builder(FAILURES_METRIC).tag("type", type).register(meterRegistry)).increment();
+        }
+        ErrorDTO errorDTO = new ErrorDTO();
+        errorDTO.setStatus(ex.getRawStatusCode());
+        errorDTO.setError(ex.getType());
+        errorDTO.setMessage(ex.getReason());
+        return ResponseEntity.status(ex.getRawStatusCode()).body(errorDTO);
+    }
 
     @ExceptionHandler(value = {IllegalArgumentException.class, IllegalStateException.class})
     protected ResponseEntity<Object> handleConflict(RuntimeException ex, WebRequest request) {
@@ -33,6 +72,37 @@ public class GlobalExceptionAdvice extends ResponseEntityExceptionHandler {
         return new ResponseEntity(ex.getMessage(), HttpStatus.BAD_REQUEST);
     }
 
+    // a violated unique constraint (SQLState 23505) is the regular "username is taken" case, e.g. of two concurrent sign-ups
+    @ExceptionHandler(DataIntegrityViolationException.class)
+    public void handleDataIntegrityViolationException(DataIntegrityViolationException ex, HttpServletResponse response) throws IOException {
+        if (UNIQUE_VIOLATION.equals(sqlState(ex))) {
+            log.debug("Unique constraint violated: {}", ex.getMostSpecificCause().getMessage());
+            response.sendError(HttpStatus.CONFLICT.value(), "The username provided is not unique");
+            return;
+        }
+        log.error(String.format("DataIntegrityViolationException raised:%s", ex));
+        response.sendError(HttpStatus.BAD_REQUEST.value(), "The request violates a constraint of the user");
+    }
+
+    // the @Version of the user changed since it was loaded, a concurrent update of the same user committed first
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public void handleOptimisticLockingFailureException(OptimisticLockingFailureException ex, HttpServletRequest request,
+                                                        HttpServletResponse response) throws IOException {
+        log.debug("Concurrent update of a user: {}", ex.getMessage());
+        // the If-Match of the request held when it was checked in UserService, the version it named is gone by now
+        HttpStatus status = request.getHeader(HttpHeaders.IF_MATCH) != null ? HttpStatus.PRECONDITION_FAILED : HttpStatus.CONFLICT;
+        response.sendError(status.value(), "The user was changed by another request in the meantime");
+    }
+
+    private static String sqlState(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                return ((SQLException) cause).getSQLState();
+            }
+        }
+        return null;
+    }
+
     @ExceptionHandler(TransactionSystemException.class)
     public ResponseStatusException handleTransactionSystemException(Exception ex, HttpServletRequest request) {
         log.error(String.format("ResponseStatusException raised:%s", ex));
@@ -0,0 +1,40 @@
+package ch.uzh.ifi.hase.soprafs22.exceptions;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Expected failure of a user request: wrong credentials or tokens, unknown
+ * ids and taken usernames. Under credential stuffing nearly every request
+ * ends in one of them, so they capture no stack trace. Every failure gets an
+ * instance of its own from the factory methods of the subclasses, a shared
+ * one would carry the causes and suppressed exceptions callers and Reactor's
+ * checkpoints add to it into other responses.
+ * GlobalExceptionAdvice answers them with a compact error body. They stay
+ * ResponseStatusExceptions, which WebFlux and every other caller already
+ * know how to handle.
+ */
+public abstract class UserFailureException extends ResponseStatusException {
+
+    private final String type;
+
+    protected UserFailureException(HttpStatus status, String type, String reason) {
+        super(status, reason);
+        this.type = type;
+    }
+
+    // the metric tag and the "error" of the response body
+    public String getType() {
+        return type;
+    }
+
+    // failed logins are counted as users.logins by the services already, not as users.failures
+    public boolean isLoginFailure() {
+        return false;
+    }
+
+    // the exception only stands for a response, where it was thrown is of no interest
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
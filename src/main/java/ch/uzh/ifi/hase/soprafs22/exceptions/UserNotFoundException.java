@@ -0,0 +1,18 @@
+package ch.uzh.ifi.hase.soprafs22.exceptions;
+import org.springframework.http.HttpStatus;
+
+public final class UserNotFoundException extends UserFailureException {
+
+    private UserNotFoundException(String reason) {
+        super(HttpStatus.NOT_FOUND, "user_not_found", reason);
+    }
+
+    public static UserNotFoundException byId() {
+        return new UserNotFoundException("The id is not correct or the id does not exist");
+    }
+
+    // logout looks the user up by the id its token resolved to
+    public static UserNotFoundException byToken() {
+        return new UserNotFoundException("The token is not correct or the token does not exist");
+    }
+}
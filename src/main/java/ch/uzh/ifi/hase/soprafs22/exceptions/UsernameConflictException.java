@@ -0,0 +1,17 @@
+package ch.uzh.ifi.hase.soprafs22.exceptions;
+import org.springframework.http.HttpStatus;
+
+public final class UsernameConflictException extends UserFailureException {
+
+    private UsernameConflictException(String reason) {
+        super(HttpStatus.CONFLICT, "username_taken", reason);
+    }
+
+    public static UsernameConflictException onCreate() {
+        return new UsernameConflictException("The username provided is not unique. Therefore, the user could not be created!");
+    }
+
+    public static UsernameConflictException onUpdate() {
+        return new UsernameConflictException("You can not use that username because it is not unique");
+    }
+}
@@ -0,0 +1,71 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+import ch.uzh.ifi.hase.soprafs22.entity.UserRow;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import java.time.LocalDateTime;
+
+/**
+ * Reactive User Repository
+ * Non-blocking access to the user table over R2DBC, used by the reactive stack
+ * (profile "reactive"). It mirrors the queries of UserRepository, including the
+ * keyset pagination, and spells out every statement since the table is owned
+ * by the JPA mapping of User.
+ */
+public interface ReactiveUserRepository extends Repository<UserRow, Long> {
+
+    @Query("select * from \"user\" where id = :id")
+    Mono<UserRow> findUserById(@Param("id") Long id);
+
+    @Query("select * from \"user\" where username = :username")
+    Mono<UserRow> findByUsername(@Param("username") String username);
+
+    @Query("select * from \"user\" where token = :token")
+    Mono<UserRow> findByToken(@Param("token") String token);
+
+    // keyset pagination, see UserRepository and UserCursor
+    @Query("select * from \"user\" order by id limit :limit")
+    Flux<UserRow> findPageOrderById(@Param("limit") int limit);
+
+    @Query("select * from \"user\" where id > :id order by id limit :limit")
+    Flux<UserRow> findPageOrderByIdAfter(@Param("id") Long id, @Param("limit") int limit);
+
+    @Query("select * from \"user\" order by username, id limit :limit")
+    Flux<UserRow> findPageOrderByUsername(@Param("limit") int limit);
+
+    @Query("select * from \"user\" where username > :username or (username = :username and id > :id) order by username, id limit :limit")
+    Flux<UserRow> findPageOrderByUsernameAfter(@Param("username") String username, @Param("id") Long id, @Param("limit") int limit);
+
+    @Query("select * from \"user\" order by creation_date, id limit :limit")
+    Flux<UserRow> findPageOrderByCreationDate(@Param("limit") int limit);
+
+    @Query("select * from \"user\" where creation_date > :creationDate or (creation_date = :creationDate and id > :id) order by creation_date, id limit :limit")
+    Flux<UserRow> findPageOrderByCreationDateAfter(@Param("creationDate") LocalDateTime creationDate, @Param("id") Long id, @Param("limit") int limit);
+
+    // rows are only fetched as fast as the subscriber requests them
+    @Query("select * from \"user\" order by id")
+    Flux<UserRow> streamAllOrderById();
+
+    // the fetched value is the id, Hibernate's pooled optimizer only uses the 50 ids up to the values it fetches itself
+    @Query("select next value for USER_SEQ")
+    Mono<Long> nextId();
+
+    @Modifying
+    @Query("insert into \"user\" (id, name, username, password, token, status, logged_in, birthday, creation_date, version) "
+            + "values (:id, :name, :username, :password, :token, :status, :loggedIn, :birthday, :creationDate, 0)")
+    Mono<Integer> insert(@Param("id") Long id, @Param("name") String name, @Param("username") String username,
+                         @Param("password") String password, @Param("token") String token, @Param("status") int status,
+                         @Param("loggedIn") boolean loggedIn, @Param("birthday") LocalDateTime birthday,
+                         @Param("creationDate") LocalDateTime creationDate);
+
+    @Modifying
+    @Query("update \"user\" set status = :status, logged_in = :loggedIn where id = :id")
+    Mono<Integer> updatePresence(@Param("id") Long id, @Param("status") int status, @Param("loggedIn") boolean loggedIn);
+
+    @Modifying
+    @Query("update \"user\" set password = :newPassword where id = :id and password = :oldPassword")
+    Mono<Integer> updatePassword(@Param("id") Long id, @Param("oldPassword") String oldPassword, @Param("newPassword") String newPassword);
+}
@@ -1,11 +1,101 @@
 package ch.uzh.ifi.hase.soprafs22.repository;
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
-import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.stereotype.Repository;
+import ch.uzh.ifi.hase.soprafs22.entity.UserSummary;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
 
-@Repository("userRepository")
-public interface UserRepository extends JpaRepository<User, Long> {
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * User Repository
+ * Only the methods declared here are exposed, each of them is routed to the
+ * shards by ShardingRepositoryAspect. A method added without a route there
+ * fails on a sharded setup, so the CRUD methods are picked one by one instead
+ * of inheriting all of JpaRepository. The presence and password updates are
+ * in UserRepositoryCustom.
+ */
+public interface UserRepository extends Repository<User, Long>, UserRepositoryCustom {
+    String EXPORT_FETCH_SIZE = "500";
+    // reads only the columns of a UserSummary, the results are no managed entities
+    String SELECT_SUMMARY = "select new ch.uzh.ifi.hase.soprafs22.entity.UserSummary(u.id, u.name, u.username, u.birthday, "
+            + "u.creation_date, u.status, u.logged_in, u.version) from User u ";
+
+    interface UsernameEntry {
+        Long getId();
+        String getUsername();
+    }
+
+    <S extends User> S save(S user);
+    <S extends User> List<S> saveAll(Iterable<S> users);
+    void flush();
+    long count();
+    void deleteAll();
+
+    // the user takes the username over from its previous one. On one database the unique constraint of the username
+    // column is all it takes, on several shards ShardingRepositoryAspect claims the username before the rename is flushed
+    default void claimUsername(Long id, String previousUsername, String username) {
+    }
+
+    // the ids found are kept in the query cache, the users themselves come from the "user" region
+    @QueryHints({@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_CACHE_REGION, value = "user-queries")})
     User findByUsername(String username);
+    @QueryHints({@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_CACHE_REGION, value = "user-queries")})
     User findUserById(Long id);
+    User findByToken(String token);
+
+    @Query(SELECT_SUMMARY + "where u.id = :id")
+    UserSummary findSummaryById(@Param("id") Long id);
+
+    @Query(SELECT_SUMMARY + "where u.id in :ids")
+    List<UserSummary> findSummariesByIdIn(@Param("ids") Collection<Long> ids);
+
+    // enough to answer a conditional GET without loading the user
+    @Query("select u.version from User u where u.id = :id")
+    Long findVersionById(@Param("id") Long id);
+
+    @Query("select u.username from User u where u.username in :usernames")
+    List<String> findExistingUsernames(@Param("usernames") Collection<String> usernames);
+
+    // keyset pages: the Pageable only carries the page size, the position is given by the last row of the previous page
+    @Query(SELECT_SUMMARY + "order by u.id")
+    List<UserSummary> findPageOrderById(Pageable pageable);
+
+    @Query(SELECT_SUMMARY + "where u.id > :id order by u.id")
+    List<UserSummary> findPageOrderByIdAfter(@Param("id") Long id, Pageable pageable);
+
+    @Query(SELECT_SUMMARY + "order by u.username, u.id")
+    List<UserSummary> findPageOrderByUsername(Pageable pageable);
+
+    @Query(SELECT_SUMMARY + "where u.username > :username or (u.username = :username and u.id > :id) order by u.username, u.id")
+    List<UserSummary> findPageOrderByUsernameAfter(@Param("username") String username, @Param("id") Long id, Pageable pageable);
+
+    @Query(SELECT_SUMMARY + "order by u.creation_date, u.id")
+    List<UserSummary> findPageOrderByCreationDate(Pageable pageable);
+
+    @Query(SELECT_SUMMARY + "where u.creation_date > :creationDate or (u.creation_date = :creationDate and u.id > :id) order by u.creation_date, u.id")
+    List<UserSummary> findPageOrderByCreationDateAfter(@Param("creationDate") Date creationDate, @Param("id") Long id, Pageable pageable);
+
+    // has to be consumed inside a transaction and closed afterwards, rows are fetched from the cursor in chunks of the fetch size
+    @QueryHints({@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE),
+            @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true")})
+    @Query("select u from User u order by u.id")
+    Stream<User> streamAllOrderById();
+
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE))
+    @Query("select u.id as id, u.username as username from User u")
+    Stream<UsernameEntry> streamUsernames();
+
+    @Query("select u.id from User u where u.status = :status")
+    List<Long> findIdsByStatus(@Param("status") UserStatus status);
 
 }
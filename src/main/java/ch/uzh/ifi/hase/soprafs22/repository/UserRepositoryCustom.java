@@ -0,0 +1,18 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+
+import java.util.Collection;
+
+/**
+ * Writes of single columns of many users, implemented with plain JDBC in
+ * UserRepositoryCustomImpl. A bulk update through JPA would evict every user
+ * from the second-level cache, these only evict the users they changed.
+ */
+public interface UserRepositoryCustom {
+
+    // the only write of the presence columns, they are not updatable through the entity
+    int updatePresence(Collection<Long> ids, UserStatus status, boolean loggedIn);
+
+    // replaces a password hash only if it was not changed in the meantime, used to rehash on login
+    int updatePassword(Long id, String oldPassword, String newPassword);
+}
@@ -0,0 +1,59 @@
+package ch.uzh.ifi.hase.soprafs22.repository;
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.service.AfterCommit;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * The updates of UserRepositoryCustom. They run on the DataSource of the JPA
+ * transactions, so they take part in the current transaction (or commit on
+ * their own without one) and ShardingRepositoryAspect routes them like every
+ * other call. Hibernate does not see them: the changed users are evicted from
+ * the "user" region once the update committed, a read in between would put
+ * the previous state back. The cached lookups only hold ids and stay valid.
+ */
+public class UserRepositoryCustomImpl implements UserRepositoryCustom {
+
+    private static final String UPDATE_PRESENCE = "update \"user\" set status = :status, logged_in = :loggedIn where id in (:ids)";
+    private static final String UPDATE_PASSWORD = "update \"user\" set password = :newPassword where id = :id and password = :oldPassword";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final EntityManagerFactory entityManagerFactory;
+
+    public UserRepositoryCustomImpl(DataSource dataSource, EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    @Override
+    public int updatePresence(Collection<Long> ids, UserStatus status, boolean loggedIn) {
+        int updated = jdbcTemplate.update(UPDATE_PRESENCE, new MapSqlParameterSource()
+                .addValue("ids", ids)
+                .addValue("status", status.ordinal())
+                .addValue("loggedIn", loggedIn));
+        evictAfterCommit(ids);
+        return updated;
+    }
+
+    @Override
+    public int updatePassword(Long id, String oldPassword, String newPassword) {
+        int updated = jdbcTemplate.update(UPDATE_PASSWORD, new MapSqlParameterSource()
+                .addValue("id", id)
+                .addValue("oldPassword", oldPassword)
+                .addValue("newPassword", newPassword));
+        if (updated > 0) {
+            evictAfterCommit(Collections.singletonList(id));
+        }
+        return updated;
+    }
+
+    private void evictAfterCommit(Collection<Long> ids) {
+        AfterCommit.run(() -> ids.forEach(id -> entityManagerFactory.getCache().evict(User.class, id)));
+    }
+}
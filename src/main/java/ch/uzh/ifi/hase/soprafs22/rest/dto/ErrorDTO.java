@@ -0,0 +1,17 @@
+package ch.uzh.ifi.hase.soprafs22.rest.dto;
+
+public class ErrorDTO
+{
+  private int status;
+  private String error;
+  private String message;
+
+  public int getStatus() {return status;}
+  public void setStatus(int status) {this.status = status;}
+
+  public String getError() {return error;}
+  public void setError(String error) {this.error = error;}
+
+  public String getMessage() {return message;}
+  public void setMessage(String message) {this.message = message;}
+}
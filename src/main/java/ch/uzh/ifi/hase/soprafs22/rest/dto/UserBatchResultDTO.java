@@ -0,0 +1,25 @@
+package ch.uzh.ifi.hase.soprafs22.rest.dto;
+
+public class UserBatchResultDTO
+{
+  private int index;
+  private int status;
+  private String username;
+  private String message;
+  private UserGetDTO user;
+
+  public int getIndex() {return index;}
+  public void setIndex(int index) {this.index = index;}
+
+  public int getStatus() {return status;}
+  public void setStatus(int status) {this.status = status;}
+
+  public String getUsername() {return username;}
+  public void setUsername(String username) {this.username = username;}
+
+  public String getMessage() {return message;}
+  public void setMessage(String message) {this.message = message;}
+
+  public UserGetDTO getUser() {return user;}
+  public void setUser(UserGetDTO user) {this.user = user;}
+}
@@ -7,7 +7,6 @@ public class UserGetDTO
   private Long id;
   private String name;
   private String username;
-  private String token;
   private Date birthday;
   private Date creation_date;
   private UserStatus status;
@@ -30,13 +29,6 @@ public class UserGetDTO
   public String getUsername() {return username;}
   public void setUsername(String username) {this.username = username;}
 
-  public String getToken() {
-        return token;
-    }
-  public void setToken(String token) {
-        this.token = token;
-    }
-
   public UserStatus getStatus() {return status;}
   public void setStatus(UserStatus status) {
     this.status = status;
@@ -0,0 +1,14 @@
+package ch.uzh.ifi.hase.soprafs22.rest.dto;
+import java.util.List;
+
+public class UserLookupDTO
+{
+  private List<UserGetDTO> users;
+  private List<Long> missing;
+
+  public List<UserGetDTO> getUsers() {return users;}
+  public void setUsers(List<UserGetDTO> users) {this.users = users;}
+
+  public List<Long> getMissing() {return missing;}
+  public void setMissing(List<Long> missing) {this.missing = missing;}
+}
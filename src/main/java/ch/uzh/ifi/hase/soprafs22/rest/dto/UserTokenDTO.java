@@ -0,0 +1,14 @@
+package ch.uzh.ifi.hase.soprafs22.rest.dto;
+
+/**
+ * The user and the token it authenticates with. Only handed out to the user
+ * itself, as the answer to its registration and login, every other response
+ * shows users as UserGetDTO.
+ */
+public class UserTokenDTO extends UserGetDTO
+{
+  private String token;
+
+  public String getToken() {return token;}
+  public void setToken(String token) {this.token = token;}
+}
@@ -1,10 +1,14 @@
 package ch.uzh.ifi.hase.soprafs22.rest.mapper;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.entity.UserRow;
+import ch.uzh.ifi.hase.soprafs22.entity.UserSummary;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPostDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPutDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserTokenDTO;
 import org.mapstruct.*;
 import org.mapstruct.factory.Mappers;
+import java.util.List;
 /**
  * DTOMapper
  * This class is responsible for generating classes that will automatically
@@ -15,8 +19,11 @@ import org.mapstruct.factory.Mappers;
  * Additional mappers can be defined for new entities.
  * Always created one mapper for getting information (GET) and one mapper for
  * creating information (POST).
+ * The implementation is also a bean, which the UserController is handed, so
+ * its calls can be advised (RequestTimingAspect). Everything else uses
+ * INSTANCE.
  */
-@Mapper
+@Mapper(componentModel = "spring")
 public interface DTOMapper
 {
   DTOMapper INSTANCE = Mappers.getMapper(DTOMapper.class);
@@ -27,15 +34,57 @@ public interface DTOMapper
   @Mapping(source = "birthday", target = "birthday")
   User convertUserPostDTOtoEntity(UserPostDTO userPostDTO);
 
+  @Mapping(source = "name", target = "name")
+  @Mapping(source = "username", target = "username")
+  @Mapping(source = "password", target="password")
+  @Mapping(source = "birthday", target = "birthday")
+  UserRow convertUserPostDTOtoUserRow(UserPostDTO userPostDTO);
+
   @Mapping(source = "id", target = "id")
   @Mapping(source = "name", target = "name")
   @Mapping(source = "username", target = "username")
   @Mapping(source = "creation_date", target = "creation_date")
   @Mapping(source = "birthday", target = "birthday")
-  @Mapping(source = "token", target = "token")
   @Mapping(source = "status", target = "status")
   UserGetDTO convertEntityToUserGetDTO(User user);
 
+  // the token only goes back to the user that registered or logged in
+  @Mapping(source = "id", target = "id")
+  @Mapping(source = "name", target = "name")
+  @Mapping(source = "username", target = "username")
+  @Mapping(source = "creation_date", target = "creation_date")
+  @Mapping(source = "birthday", target = "birthday")
+  @Mapping(source = "token", target = "token")
+  @Mapping(source = "status", target = "status")
+  UserTokenDTO convertEntityToUserTokenDTO(User user);
+
+  @Mapping(source = "id", target = "id")
+  @Mapping(source = "name", target = "name")
+  @Mapping(source = "username", target = "username")
+  @Mapping(source = "creation_date", target = "creation_date")
+  @Mapping(source = "birthday", target = "birthday")
+  @Mapping(source = "status", target = "status")
+  UserGetDTO convertUserSummaryToUserGetDTO(UserSummary userSummary);
+
+  List<UserGetDTO> convertUserSummariesToUserGetDTOs(List<UserSummary> userSummaries);
+
+  @Mapping(source = "id", target = "id")
+  @Mapping(source = "name", target = "name")
+  @Mapping(source = "username", target = "username")
+  @Mapping(source = "creation_date", target = "creation_date")
+  @Mapping(source = "birthday", target = "birthday")
+  @Mapping(source = "status", target = "status")
+  UserGetDTO convertUserRowToUserGetDTO(UserRow userRow);
+
+  @Mapping(source = "id", target = "id")
+  @Mapping(source = "name", target = "name")
+  @Mapping(source = "username", target = "username")
+  @Mapping(source = "creation_date", target = "creation_date")
+  @Mapping(source = "birthday", target = "birthday")
+  @Mapping(source = "token", target = "token")
+  @Mapping(source = "status", target = "status")
+  UserTokenDTO convertUserRowToUserTokenDTO(UserRow userRow);
+
   @Mapping(source = "username", target = "username")
   @Mapping(source = "birthday", target = "birthday")
   @Mapping(source = "token", target = "token")
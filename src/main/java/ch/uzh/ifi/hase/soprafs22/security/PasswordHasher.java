@@ -0,0 +1,235 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import javax.annotation.PreDestroy;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Password Hasher
+ * Hashes and verifies passwords with salted PBKDF2 (HMAC-SHA256). Stored
+ * passwords have the form pbkdf2$iterations$salt$hash, so the cost of every
+ * hash is known when it is verified. Passwords stored before hashing was
+ * introduced are plain text and still verify, loginUser replaces them (and
+ * hashes of an outdated cost) with a fresh hash.
+ * The hashing is CPU bound and deliberately slow, it runs on a small pool of
+ * its own instead of on the Tomcat request threads. The pool and its queue are
+ * bounded: once both are full, further logins are rejected with 503 right away
+ * instead of piling up and slowing every login down.
+ */
+@Component
+public class PasswordHasher
+{
+    public static final String ALGORITHM = "pbkdf2";
+
+    private static final String KEY_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String SEPARATOR = "$";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Logger log = LoggerFactory.getLogger(PasswordHasher.class);
+    private final int iterations;
+    private final int threads;
+    private final ThreadPoolExecutor executor;
+
+    public PasswordHasher(@Value("${users.password.iterations:120000}") int iterations,
+                          @Value("${users.password.threads:0}") int threads,
+                          @Value("${users.password.queue-capacity:256}") int queueCapacity)
+    {
+        this.iterations = iterations;
+        // 0 -> one thread per core, more threads than cores only add context switches
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(this.threads, this.threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    // threads are started lazily on a request thread, they must not keep Tomcat's class loader
+                    thread.setContextClassLoader(PasswordHasher.class.getClassLoader());
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public String hash(String rawPassword)
+    {
+        if (rawPassword == null)
+        {
+            return null;
+        }
+        return await(() -> encode(rawPassword, iterations));
+    }
+
+    /*
+     * Hashes several passwords at once, e.g. for a batch of new users. The work is
+     * split into one task per hashing thread, so a large batch does not flood the queue.
+     */
+    public List<String> hashAll(List<String> rawPasswords)
+    {
+        int sliceSize = Math.max(1, (rawPasswords.size() + threads - 1) / threads);
+        List<Future<List<String>>> slices = new ArrayList<>();
+        for (int from = 0; from < rawPasswords.size(); from += sliceSize)
+        {
+            List<String> slice = rawPasswords.subList(from, Math.min(from + sliceSize, rawPasswords.size()));
+            slices.add(submit(() -> {
+                List<String> hashes = new ArrayList<>(slice.size());
+                for (String rawPassword : slice)
+                {
+                    hashes.add(rawPassword == null ? null : encode(rawPassword, iterations));
+                }
+                return hashes;
+            }));
+        }
+        List<String> hashes = new ArrayList<>(rawPasswords.size());
+        for (Future<List<String>> slice : slices)
+        {
+            hashes.addAll(get(slice));
+        }
+        return hashes;
+    }
+
+    public boolean verify(String rawPassword, String storedPassword)
+    {
+        if (rawPassword == null || storedPassword == null)
+        {
+            return false;
+        }
+        return await(() -> matches(rawPassword, storedPassword));
+    }
+
+    // true for plain text passwords and for hashes computed with another cost than the configured one
+    public boolean needsRehash(String storedPassword)
+    {
+        String[] parts = split(storedPassword);
+        return parts == null || Integer.parseInt(parts[1]) != iterations;
+    }
+
+    public int getIterations()
+    {
+        return iterations;
+    }
+
+    public int getQueuedTasks()
+    {
+        return executor.getQueue().size();
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    /*
+     * Computes a hash on the calling thread, the cost is given by the number of iterations.
+     */
+    public static String encode(String rawPassword, int iterations)
+    {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        Base64.Encoder encoder = Base64.getEncoder();
+        return ALGORITHM + SEPARATOR + iterations + SEPARATOR + encoder.encodeToString(salt)
+                + SEPARATOR + encoder.encodeToString(pbkdf2(rawPassword, salt, iterations));
+    }
+
+    /*
+     * Verifies a password on the calling thread. Stored passwords that are no hash are compared as plain text.
+     */
+    public static boolean matches(String rawPassword, String storedPassword)
+    {
+        String[] parts = split(storedPassword);
+        if (parts == null)
+        {
+            return MessageDigest.isEqual(rawPassword.getBytes(StandardCharsets.UTF_8), storedPassword.getBytes(StandardCharsets.UTF_8));
+        }
+        Base64.Decoder decoder = Base64.getDecoder();
+        byte[] expected = decoder.decode(parts[3]);
+        return MessageDigest.isEqual(expected, pbkdf2(rawPassword, decoder.decode(parts[2]), Integer.parseInt(parts[1])));
+    }
+
+    private static String[] split(String storedPassword)
+    {
+        if (storedPassword == null || !storedPassword.startsWith(ALGORITHM + SEPARATOR))
+        {
+            return null;
+        }
+        String[] parts = storedPassword.split("\\$");
+        return parts.length == 4 ? parts : null;
+    }
+
+    private static byte[] pbkdf2(String rawPassword, byte[] salt, int iterations)
+    {
+        PBEKeySpec spec = new PBEKeySpec(rawPassword.toCharArray(), salt, iterations, HASH_BITS);
+        try
+        {
+            return SecretKeyFactory.getInstance(KEY_ALGORITHM).generateSecret(spec).getEncoded();
+        }
+        catch (GeneralSecurityException e)
+        {
+            throw new IllegalStateException(KEY_ALGORITHM + " is not available", e);
+        }
+        finally
+        {
+            spec.clearPassword();
+        }
+    }
+
+    private <T> T await(Callable<T> task)
+    {
+        return get(submit(task));
+    }
+
+    private <T> Future<T> submit(Callable<T> task)
+    {
+        try
+        {
+            return executor.submit(task);
+        }
+        catch (RejectedExecutionException e)
+        {
+            log.warn("Password hashing is saturated, {} tasks queued", executor.getQueue().size());
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many logins at the moment, please try again");
+        }
+    }
+
+    private static <T> T get(Future<T> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "The password could not be checked");
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a controller method that may only be called with the token of a
+ * logged in user in the Authorization header. If the request path contains an
+ * "id" variable, the token also has to belong to the user with that id.
+ *
+ * @see TokenAuthenticationInterceptor
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RequiresToken {
+}
@@ -0,0 +1,21 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class SecurityConfig implements WebMvcConfigurer
+{
+    private final SessionCache sessionCache;
+
+    public SecurityConfig(SessionCache sessionCache)
+    {
+        this.sessionCache = sessionCache;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry)
+    {
+        registry.addInterceptor(new TokenAuthenticationInterceptor(sessionCache)).addPathPatterns("/users/**");
+    }
+}
@@ -0,0 +1,124 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.service.AfterCommit;
+import ch.uzh.ifi.hase.soprafs22.service.PresenceRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Session Cache
+ * Resolves the token of a request to the id of the logged in user it belongs
+ * to. Resolved sessions are kept for a limited time, so an authenticated
+ * request usually costs no query at all. Only unknown or expired tokens are
+ * looked up with UserRepository.findByToken. Logging out invalidates the
+ * session explicitly, tokens of logged out users are never cached.
+ * Whether a user is logged in is taken from the PresenceRegistry, the status
+ * column can lag behind it until the next presence flush.
+ */
+@Component
+public class SessionCache
+{
+    private static final class Session
+    {
+        private final Long userId;
+        private final long expiresAt;
+
+        private Session(Long userId, long expiresAt)
+        {
+            this.userId = userId;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final UserRepository userRepository;
+    private final PresenceRegistry presenceRegistry;
+    private final long ttlMillis;
+    private final int maxSize;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public SessionCache(@Qualifier("userRepository") UserRepository userRepository, PresenceRegistry presenceRegistry,
+                        @Value("${users.session.ttl-seconds:300}") long ttlSeconds,
+                        @Value("${users.session.max-size:100000}") int maxSize)
+    {
+        this.userRepository = userRepository;
+        this.presenceRegistry = presenceRegistry;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.maxSize = maxSize;
+    }
+
+    /*
+     * Returns the id of the logged in user the token belongs to, or null if the token
+     * is unknown or its user is logged out.
+     */
+    public Long resolve(String token)
+    {
+        if (token == null || token.isEmpty())
+        {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Session session = sessions.get(token);
+        if (session != null && session.expiresAt > now)
+        {
+            hits.increment();
+            return session.userId;
+        }
+        misses.increment();
+
+        User user = userRepository.findByToken(token);
+        if (user == null || !presenceRegistry.isOnline(user.getId(), user.getStatus() == UserStatus.ONLINE))
+        {
+            sessions.remove(token);
+            return null;
+        }
+        if (sessions.size() >= maxSize)
+        {
+            evict(now);
+        }
+        sessions.put(token, new Session(user.getId(), now + ttlMillis));
+        return user.getId();
+    }
+
+    public void invalidate(String token)
+    {
+        if (token != null)
+        {
+            sessions.remove(token);
+        }
+    }
+
+    // invalidates again after the commit, a request racing the logout could have cached the old state meanwhile
+    public void invalidateAfterCommit(String token)
+    {
+        invalidate(token);
+        AfterCommit.run(() -> invalidate(token));
+    }
+
+    // drops expired sessions first and arbitrary ones if that did not free any space
+    private void evict(long now)
+    {
+        sessions.values().removeIf(session -> session.expiresAt <= now);
+        Iterator<String> tokens = sessions.keySet().iterator();
+        while (sessions.size() >= maxSize && tokens.hasNext())
+        {
+            tokens.next();
+            tokens.remove();
+        }
+    }
+
+    public int size() {return sessions.size();}
+
+    public long getHitCount() {return hits.sum();}
+
+    public long getMissCount() {return misses.sum();}
+}
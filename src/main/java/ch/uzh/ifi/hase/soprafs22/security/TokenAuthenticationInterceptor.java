@@ -0,0 +1,75 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+import ch.uzh.ifi.hase.soprafs22.exceptions.AuthenticationFailureException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+/**
+ * Token Authentication Interceptor
+ * Checks the Authorization header ("Bearer <token>" or just the token) of
+ * every request to a controller method annotated with {@link RequiresToken}.
+ * - no token or the token of a logged out user -> 401
+ * - the token belongs to a different user than the "id" in the path -> 403
+ * The id of the authenticated user is stored in the request attribute
+ * {@link #USER_ID_ATTRIBUTE}.
+ */
+public class TokenAuthenticationInterceptor implements HandlerInterceptor
+{
+    public static final String USER_ID_ATTRIBUTE = TokenAuthenticationInterceptor.class.getName() + ".userId";
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private final SessionCache sessionCache;
+
+    public TokenAuthenticationInterceptor(SessionCache sessionCache)
+    {
+        this.sessionCache = sessionCache;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+    {
+        if (!(handler instanceof HandlerMethod) || !((HandlerMethod) handler).hasMethodAnnotation(RequiresToken.class))
+        {
+            return true;
+        }
+
+        String token = token(request);
+        Long userId = token == null || token.isEmpty() ? null : sessionCache.resolve(token);
+        if (userId == null)
+        {
+            throw AuthenticationFailureException.invalidToken();
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, String> pathVariables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String pathId = pathVariables == null ? null : pathVariables.get("id");
+        if (pathId != null && !pathId.equals(userId.toString()))
+        {
+            throw AuthenticationFailureException.foreignToken();
+        }
+
+        request.setAttribute(USER_ID_ATTRIBUTE, userId);
+        return true;
+    }
+
+    static String token(HttpServletRequest request)
+    {
+        return token(request.getHeader(HttpHeaders.AUTHORIZATION));
+    }
+
+    // the token of an Authorization header value, with or without the "Bearer " prefix
+    public static String token(String authorization)
+    {
+        if (authorization == null)
+        {
+            return null;
+        }
+        authorization = authorization.trim();
+        return authorization.regionMatches(true, 0, BEARER_PREFIX, 0, BEARER_PREFIX.length())
+                ? authorization.substring(BEARER_PREFIX.length()).trim() : authorization;
+    }
+}
@@ -0,0 +1,30 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Runs an action once the current transaction has committed, or right away
+ * if there is no transaction. Used to keep the in-memory structures next to
+ * the database from seeing writes that are rolled back later.
+ */
+public final class AfterCommit
+{
+    private AfterCommit() {}
+
+    public static void run(Runnable action)
+    {
+        if (!TransactionSynchronizationManager.isSynchronizationActive())
+        {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization()
+        {
+            @Override
+            public void afterCommit()
+            {
+                action.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,164 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Presence Registry
+ * Holds who is online in memory. Login and logout only flip the state here,
+ * the status/logged_in columns of the USER table are written behind: changed
+ * ids are collected and flushed periodically with one bulk UPDATE per state,
+ * so any number of logins and logouts of a user between two flushes cost a
+ * single write. The registry is flushed a last time on shutdown.
+ * Users the registry does not know keep the state stored in the database.
+ * Once a logout is flushed the user is forgotten again, so only the online
+ * users and the changes not yet written are held.
+ */
+@Component
+public class PresenceRegistry
+{
+    static final int FLUSH_CHUNK_SIZE = 1000;
+
+    private final Logger log = LoggerFactory.getLogger(PresenceRegistry.class);
+
+    private final UserRepository userRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Map<Long, Boolean> onlineById = new ConcurrentHashMap<>();
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+
+    public PresenceRegistry(@Qualifier("userRepository") UserRepository userRepository,
+                            PlatformTransactionManager transactionManager)
+    {
+        this.userRepository = userRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    public void markOnline(Long id)
+    {
+        onlineById.put(id, Boolean.TRUE);
+        dirty.add(id);
+    }
+
+    public void markOffline(Long id)
+    {
+        onlineById.put(id, Boolean.FALSE);
+        dirty.add(id);
+    }
+
+    // state that is already stored in the database, e.g. the status a user is inserted with
+    public void record(Long id, boolean online)
+    {
+        onlineById.put(id, online);
+    }
+
+    public void recordAfterCommit(Long id, boolean online)
+    {
+        AfterCommit.run(() -> record(id, online));
+    }
+
+    public boolean isOnline(Long id, boolean storedState)
+    {
+        Boolean online = onlineById.get(id);
+        return online == null ? storedState : online;
+    }
+
+    public List<Long> onlineUserIds()
+    {
+        return onlineById.entrySet().stream()
+                .filter(Map.Entry::getValue)
+                .map(Map.Entry::getKey)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    // overlays the in-memory state on a user mapped from a possibly outdated entity
+    public void applyTo(UserGetDTO userGetDTO)
+    {
+        Boolean online = userGetDTO.getId() == null ? null : onlineById.get(userGetDTO.getId());
+        if (online != null)
+        {
+            userGetDTO.setStatus(online ? UserStatus.ONLINE : UserStatus.OFFLINE);
+            userGetDTO.setLogged_in(online);
+        }
+    }
+
+    public int pendingWrites()
+    {
+        return dirty.size();
+    }
+
+    public void warmUp(List<Long> onlineIds)
+    {
+        onlineIds.forEach(id -> onlineById.putIfAbsent(id, Boolean.TRUE));
+        log.info("Presence registry warmed up with {} online users", onlineIds.size());
+    }
+
+    /*
+     * Writes the state of all users that changed since the last flush. An id is taken out
+     * of the dirty set before its current state is read, so a change racing the flush is
+     * either part of this flush or marks the id dirty again for the next one.
+     */
+    @Scheduled(fixedDelayString = "${users.presence.flush-interval-ms:1000}")
+    public void flush()
+    {
+        List<Long> online = new ArrayList<>();
+        List<Long> offline = new ArrayList<>();
+        for (Iterator<Long> ids = dirty.iterator(); ids.hasNext(); )
+        {
+            Long id = ids.next();
+            ids.remove();
+            (onlineById.getOrDefault(id, Boolean.FALSE) ? online : offline).add(id);
+        }
+        if (online.isEmpty() && offline.isEmpty())
+        {
+            return;
+        }
+
+        try
+        {
+            transactionTemplate.executeWithoutResult(status -> {
+                write(online, UserStatus.ONLINE);
+                write(offline, UserStatus.OFFLINE);
+            });
+            // the database knows them to be offline now, unless they logged in again in the meantime
+            offline.forEach(id -> onlineById.remove(id, Boolean.FALSE));
+        }
+        catch (RuntimeException e)
+        {
+            // keep the changes for the next flush
+            dirty.addAll(online);
+            dirty.addAll(offline);
+            log.error("Flushing the presence of {} users failed", online.size() + offline.size(), e);
+        }
+    }
+
+    private void write(List<Long> ids, UserStatus status)
+    {
+        for (int from = 0; from < ids.size(); from += FLUSH_CHUNK_SIZE)
+        {
+            List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + FLUSH_CHUNK_SIZE));
+            userRepository.updatePresence(chunk, status, status == UserStatus.ONLINE);
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown()
+    {
+        flush();
+    }
+}
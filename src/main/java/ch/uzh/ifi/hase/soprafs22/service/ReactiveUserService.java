@@ -0,0 +1,185 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+import ch.uzh.ifi.hase.soprafs22.constant.UserSortOrder;
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.UserRow;
+import ch.uzh.ifi.hase.soprafs22.exceptions.AuthenticationFailureException;
+import ch.uzh.ifi.hase.soprafs22.exceptions.UserNotFoundException;
+import ch.uzh.ifi.hase.soprafs22.exceptions.UsernameConflictException;
+import ch.uzh.ifi.hase.soprafs22.repository.ReactiveUserRepository;
+import ch.uzh.ifi.hase.soprafs22.security.PasswordHasher;
+import io.r2dbc.spi.R2dbcException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+/**
+ * Reactive User Service
+ * Counterpart of the UserService for the reactive stack (profile "reactive").
+ * Nothing in here blocks an event loop thread: the database is accessed over
+ * R2DBC, and the password hasher, which blocks until its pool is done, is
+ * called on the bounded elastic scheduler. Logins and logouts write the status
+ * columns directly, the PresenceRegistry only serves the servlet stack.
+ */
+@Service
+@Profile("reactive")
+public class ReactiveUserService
+{
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    private final Logger log = LoggerFactory.getLogger(ReactiveUserService.class);
+    private final ReactiveUserRepository userRepository;
+    private final PasswordHasher passwordHasher;
+
+    public ReactiveUserService(ReactiveUserRepository userRepository, PasswordHasher passwordHasher)
+    {
+        this.userRepository = userRepository;
+        this.passwordHasher = passwordHasher;
+    }
+
+    // one page of users, same keyset pagination as UserService.getUsers
+    public Flux<UserRow> getUsers(UserSortOrder sortOrder, String after, Integer limit)
+    {
+        return Flux.defer(() -> {
+            int pageSize = UserService.pageSize(limit);
+            UserCursor cursor = after == null ? null : UserCursor.decode(sortOrder, after);
+            switch (sortOrder)
+            {
+                case USERNAME:
+                    return cursor == null ? userRepository.findPageOrderByUsername(pageSize)
+                            : userRepository.findPageOrderByUsernameAfter(cursor.getUsername(), cursor.getId(), pageSize);
+                case CREATION_DATE:
+                    return cursor == null ? userRepository.findPageOrderByCreationDate(pageSize)
+                            : userRepository.findPageOrderByCreationDateAfter(UserRow.toLocalDateTime(cursor.getCreationDate()), cursor.getId(), pageSize);
+                default:
+                    return cursor == null ? userRepository.findPageOrderById(pageSize)
+                            : userRepository.findPageOrderByIdAfter(cursor.getId(), pageSize);
+            }
+        });
+    }
+
+    // all users ordered by id, rows are read only as fast as the client consumes them
+    public Flux<UserRow> exportUsers()
+    {
+        return userRepository.streamAllOrderById();
+    }
+
+    public Mono<UserRow> getUserById(Long userId)
+    {
+        return userRepository.findUserById(userId)
+                .switchIfEmpty(Mono.error(UserNotFoundException::byId));
+    }
+
+    /*
+     * Creates a user with a single INSERT, the unique constraint on the username
+     * decides about duplicates (-> 409), like in UserService.createUser.
+     */
+    public Mono<UserRow> createUser(UserRow newUser)
+    {
+        if (newUser.getPassword() == null)
+        {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "The name, username and password are required"));
+        }
+        newUser.setToken(UUID.randomUUID().toString());
+        newUser.setStatus(UserStatus.ONLINE);
+        newUser.setLogged_in(true);
+        newUser.setCreation_date(new Date());
+
+        return offload(() -> passwordHasher.hash(newUser.getPassword()))
+                .zipWith(userRepository.nextId())
+                .flatMap(hashAndId -> {
+                    newUser.setPassword(hashAndId.getT1());
+                    newUser.setId(hashAndId.getT2());
+                    return userRepository.insert(newUser.getId(), newUser.getName(), newUser.getUsername(), newUser.getPassword(),
+                            newUser.getToken(), UserStatus.ONLINE.ordinal(), true, UserRow.toLocalDateTime(newUser.getBirthday()),
+                            UserRow.toLocalDateTime(newUser.getCreation_date()));
+                })
+                .onErrorMap(DataIntegrityViolationException.class, e -> isUniqueViolation(e)
+                        ? UsernameConflictException.onCreate()
+                        : new ResponseStatusException(HttpStatus.BAD_REQUEST, "The name, username and password are required"))
+                .doOnNext(inserted -> log.debug("Created Information for User: {}", newUser.getId()))
+                .thenReturn(newUser);
+    }
+
+    public Mono<UserRow> loginUser(String username, String password)
+    {
+        return userRepository.findByUsername(username)
+                .switchIfEmpty(Mono.error(AuthenticationFailureException::unknownUser))
+                .flatMap(user -> offload(() -> passwordHasher.verify(password, user.getPassword()))
+                        .flatMap(matches -> matches ? rehashIfNeeded(user, password)
+                                : Mono.error(AuthenticationFailureException::badPassword)))
+                .flatMap(user -> setPresence(user, UserStatus.ONLINE, true));
+    }
+
+    /*
+     * Logs a user out. The token has to belong to the user with the given id and
+     * that user has to be logged in, the same rules the TokenAuthenticationInterceptor
+     * applies to the servlet stack (401 / 403).
+     */
+    public Mono<UserRow> logoutUser(Long userId, String token)
+    {
+        if (token == null || token.isEmpty())
+        {
+            return Mono.error(AuthenticationFailureException::invalidToken);
+        }
+        return userRepository.findByToken(token)
+                .filter(UserRow::getLogged_in)
+                .switchIfEmpty(Mono.error(AuthenticationFailureException::invalidToken))
+                .flatMap(user -> user.getId().equals(userId) ? setPresence(user, UserStatus.OFFLINE, false)
+                        : Mono.error(AuthenticationFailureException::foreignToken));
+    }
+
+    private Mono<UserRow> setPresence(UserRow user, UserStatus status, boolean loggedIn)
+    {
+        user.setStatus(status);
+        user.setLogged_in(loggedIn);
+        return userRepository.updatePresence(user.getId(), status.ordinal(), loggedIn).thenReturn(user);
+    }
+
+    // a failed rehash is retried on the next login, it never fails the login itself
+    private Mono<UserRow> rehashIfNeeded(UserRow user, String password)
+    {
+        String storedPassword = user.getPassword();
+        if (!passwordHasher.needsRehash(storedPassword))
+        {
+            return Mono.just(user);
+        }
+        return offload(() -> passwordHasher.hash(password))
+                .flatMap(newPassword -> userRepository.updatePassword(user.getId(), storedPassword, newPassword)
+                        .filter(updated -> updated == 1)
+                        .doOnNext(updated -> user.setPassword(newPassword)))
+                .thenReturn(user)
+                .onErrorResume(ResponseStatusException.class, e -> Mono.just(user));
+    }
+
+    private static <T> Mono<T> offload(Callable<T> blockingCall)
+    {
+        return Mono.fromCallable(blockingCall).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static boolean isUniqueViolation(DataIntegrityViolationException e)
+    {
+        if (e instanceof DuplicateKeyException)
+        {
+            return true;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause())
+        {
+            if (cause instanceof R2dbcException)
+            {
+                return UNIQUE_VIOLATION.equals(((R2dbcException) cause).getSqlState());
+            }
+        }
+        return false;
+    }
+}
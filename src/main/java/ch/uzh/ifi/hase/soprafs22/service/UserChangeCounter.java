@@ -0,0 +1,35 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+import org.springframework.stereotype.Component;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User Change Counter
+ * Counts every change that can show up in the user list: created and updated
+ * users and logins/logouts. It versions the list as a whole, so a conditional
+ * GET /users is answered without a query while the counter stands still.
+ * Changes are counted after their commit, so a tag is never newer than the
+ * data it stands for. The tag starts with a random epoch, a restarted server
+ * does not hand out the tags of the previous one again.
+ */
+@Component
+public class UserChangeCounter
+{
+    private final String epoch = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private final AtomicLong changes = new AtomicLong();
+
+    public void increment()
+    {
+        changes.incrementAndGet();
+    }
+
+    public void incrementAfterCommit()
+    {
+        AfterCommit.run(this::increment);
+    }
+
+    public String tag()
+    {
+        return epoch + "-" + changes.get();
+    }
+}
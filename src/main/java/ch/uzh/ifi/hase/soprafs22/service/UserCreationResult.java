@@ -0,0 +1,39 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Outcome of creating one user of a batch: the created user, or the status
+ * and reason why this user was not created.
+ */
+public class UserCreationResult
+{
+    private final HttpStatus status;
+    private final User user;
+    private final String message;
+
+    private UserCreationResult(HttpStatus status, User user, String message)
+    {
+        this.status = status;
+        this.user = user;
+        this.message = message;
+    }
+
+    public static UserCreationResult created(User user)
+    {
+        return new UserCreationResult(HttpStatus.CREATED, user, null);
+    }
+
+    public static UserCreationResult rejected(HttpStatus status, User user, String message)
+    {
+        return new UserCreationResult(status, user, message);
+    }
+
+    public HttpStatus getStatus() {return status;}
+
+    public User getUser() {return user;}
+
+    public String getMessage() {return message;}
+
+    public boolean isCreated() {return status == HttpStatus.CREATED;}
+}
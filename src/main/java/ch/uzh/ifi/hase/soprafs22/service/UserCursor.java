@@ -0,0 +1,103 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+import ch.uzh.ifi.hase.soprafs22.constant.UserSortOrder;
+import ch.uzh.ifi.hase.soprafs22.entity.UserRow;
+import ch.uzh.ifi.hase.soprafs22.entity.UserSummary;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * User Cursor
+ * Opaque position in the user list for keyset pagination. A cursor stores the
+ * sort key and the id of the last user of a page, so the next page can be
+ * read with "WHERE (key, id) > (:key, :id)" instead of an OFFSET that grows
+ * with every page.
+ */
+public final class UserCursor
+{
+    private static final char SEPARATOR = '|';
+
+    private final UserSortOrder sortOrder;
+    private final long id;
+    private final String key;
+
+    private UserCursor(UserSortOrder sortOrder, long id, String key)
+    {
+        this.sortOrder = sortOrder;
+        this.id = id;
+        this.key = key;
+    }
+
+    public static UserCursor of(UserSortOrder sortOrder, UserSummary userSummary)
+    {
+        return of(sortOrder, userSummary.getId(), userSummary.getUsername(), userSummary.getCreation_date());
+    }
+
+    public static UserCursor of(UserSortOrder sortOrder, UserRow userRow)
+    {
+        return of(sortOrder, userRow.getId(), userRow.getUsername(), userRow.getCreation_date());
+    }
+
+    private static UserCursor of(UserSortOrder sortOrder, long id, String username, Date creationDate)
+    {
+        String key;
+        switch (sortOrder)
+        {
+            case USERNAME:
+                key = username;
+                break;
+            case CREATION_DATE:
+                key = Long.toString(creationDate.getTime());
+                break;
+            default:
+                key = "";
+        }
+        return new UserCursor(sortOrder, id, key);
+    }
+
+    /*
+     * Parses a cursor previously produced by encode(). A cursor that is malformed or was
+     * issued for a different sort order is rejected with 400, as it would silently skip
+     * or repeat users otherwise.
+     */
+    public static UserCursor decode(UserSortOrder sortOrder, String encoded)
+    {
+        try
+        {
+            String decoded = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+            int first = decoded.indexOf(SEPARATOR);
+            int second = decoded.indexOf(SEPARATOR, first + 1);
+            if (first < 0 || second < 0 || !sortOrder.name().equals(decoded.substring(0, first)))
+            {
+                throw new IllegalArgumentException(encoded);
+            }
+            long id = Long.parseLong(decoded.substring(first + 1, second));
+            UserCursor cursor = new UserCursor(sortOrder, id, decoded.substring(second + 1));
+            if (sortOrder == UserSortOrder.CREATION_DATE)
+            {
+                cursor.getCreationDate();
+            }
+            return cursor;
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The cursor is not valid for the requested sort order");
+        }
+    }
+
+    public String encode()
+    {
+        String raw = sortOrder.name() + SEPARATOR + id + SEPARATOR + key;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public UserSortOrder getSortOrder() {return sortOrder;}
+
+    public long getId() {return id;}
+
+    public String getUsername() {return key;}
+
+    public Date getCreationDate() {return new Date(Long.parseLong(key));}
+}
@@ -0,0 +1,128 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * User JSON Cache
+ * Holds the serialized UserGetDTO of recently requested users together with
+ * its ETag, so GET /users/{id} can write the bytes without loading, mapping or
+ * serializing the user. Every write path of a user (create, update, login,
+ * logout) invalidates its entry.
+ * A reader takes a stamp of the user before it loads it and can only store
+ * its result if the user was not invalidated since: the stamp is a pending
+ * entry in the cache that the result replaces, an invalidation removes it.
+ * A response built from data that was changed in the meantime never makes it
+ * into the cache, while invalidations of other users do not affect it. A
+ * reader that fails releases its stamp again.
+ * The entries are bounded by users.json-cache.max-size, Caffeine evicts the
+ * ones least likely to be requested again. Reads are published as
+ * users.json-cache.gets with result=hit|miss, the entries as
+ * users.json-cache.size.
+ */
+@Component
+public class UserJsonCache
+{
+    public static final class Entry
+    {
+        private final byte[] json;
+        private final String eTag;
+
+        public Entry(byte[] json, String eTag)
+        {
+            this.json = json;
+            this.eTag = eTag;
+        }
+
+        public byte[] getJson() {return json;}
+
+        public String getETag() {return eTag;}
+
+        // the stamp of a reader that is still building the response
+        private boolean isPending() {return json == null;}
+    }
+
+    private final Cache<Long, Entry> entries;
+    private final ConcurrentMap<Long, Entry> entryMap;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public UserJsonCache(@Value("${users.json-cache.max-size:10000}") int maxSize, MeterRegistry meterRegistry)
+    {
+        this.entries = Caffeine.newBuilder().maximumSize(Math.max(maxSize, 0)).build();
+        // the map view neither records statistics nor counts as a read for the eviction
+        this.entryMap = entries.asMap();
+        FunctionCounter.builder("users.json-cache.gets", hits, LongAdder::sum)
+                .description("Reads of the serialized users, by their result")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("users.json-cache.gets", misses, LongAdder::sum)
+                .description("Reads of the serialized users, by their result")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        Gauge.builder("users.json-cache.size", entries, Cache::estimatedSize)
+                .description("Serialized users held, including pending ones")
+                .register(meterRegistry);
+    }
+
+    public Entry get(Long id)
+    {
+        Entry entry = entries.getIfPresent(id);
+        if (entry == null || entry.isPending())
+        {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry;
+    }
+
+    // to be taken before the user is loaded and handed to put() with the result
+    public Object stamp(Long id)
+    {
+        return entryMap.computeIfAbsent(id, key -> new Entry(null, null));
+    }
+
+    public void put(Long id, byte[] json, String eTag, Object stamp)
+    {
+        // only replaces the entry seen by stamp(), an invalidation since removed it
+        entryMap.replace(id, (Entry) stamp, new Entry(json, eTag));
+    }
+
+    // for a reader that failed, e.g. on an unknown id, so its stamp does not stay in the cache
+    public void release(Long id, Object stamp)
+    {
+        entryMap.remove(id, stamp);
+    }
+
+    public void invalidate(Long id)
+    {
+        if (id != null)
+        {
+            entries.invalidate(id);
+        }
+    }
+
+    // invalidates again after the commit, a request racing the write could have cached the old state meanwhile
+    public void invalidateAfterCommit(Long id)
+    {
+        invalidate(id);
+        AfterCommit.run(() -> invalidate(id));
+    }
+
+    public long size()
+    {
+        entries.cleanUp();
+        return entries.estimatedSize();
+    }
+
+    public long getHitCount() {return hits.sum();}
+
+    public long getMissCount() {return misses.sum();}
+}
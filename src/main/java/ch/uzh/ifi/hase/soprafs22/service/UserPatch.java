@@ -0,0 +1,29 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+import java.util.Date;
+
+/**
+ * Partial update of a user, as given by a JSON merge patch: only the fields
+ * that were set are changed. The username can only be replaced, the birthday
+ * can also be removed by setting it to null.
+ */
+public class UserPatch
+{
+    private String username;
+    private boolean birthdaySet;
+    private Date birthday;
+
+    // null leaves the username as it is
+    public String getUsername() {return username;}
+
+    public void setUsername(String username) {this.username = username;}
+
+    public boolean hasBirthday() {return birthdaySet;}
+
+    public Date getBirthday() {return birthday;}
+
+    public void setBirthday(Date birthday)
+    {
+        this.birthday = birthday;
+        this.birthdaySet = true;
+    }
+}
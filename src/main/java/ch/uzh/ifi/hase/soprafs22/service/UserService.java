@@ -1,145 +1,602 @@
 package ch.uzh.ifi.hase.soprafs22.service;
+import ch.uzh.ifi.hase.soprafs22.constant.UserSortOrder;
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.entity.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.exceptions.AuthenticationFailureException;
+import ch.uzh.ifi.hase.soprafs22.exceptions.UserNotFoundException;
+import ch.uzh.ifi.hase.soprafs22.exceptions.UsernameConflictException;
 import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.security.PasswordHasher;
+import ch.uzh.ifi.hase.soprafs22.security.SessionCache;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 /**
  * User Service
  * This class is the "worker" and responsible for all functionality related to
  * the user
  * (e.g., it creates, modifies, deletes, finds). The result will be passed back
  * to the caller.
+ * Every operation is timed as users.service (tagged with the method), logins
+ * are counted as users.logins by their result.
  */
 @Service
 @Transactional
 public class UserService
 {
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 1000;
+    public static final int MAX_BATCH_SIZE = 1000;
+    public static final int MAX_LOOKUP_SIZE = 10000;
+    static final int LOOKUP_CHUNK_SIZE = 500;
+    public static final String TIMER_NAME = "users.service";
+
     private final Logger log = LoggerFactory.getLogger(UserService.class);
     private final UserRepository userRepository;
+    private final UsernameIndex usernameIndex;
+    private final SessionCache sessionCache;
+    private final PresenceRegistry presenceRegistry;
+    private final PasswordHasher passwordHasher;
+    private final UserChangeCounter userChangeCounter;
+    private final UserJsonCache userJsonCache;
+    private final TransactionTemplate transactionTemplate;
+    private final Counter successfulLogins;
+    private final Counter unknownUserLogins;
+    private final Counter badPasswordLogins;
+
+    @PersistenceContext
+    private EntityManager entityManager;
 
     @Autowired
-    public UserService(@Qualifier("userRepository") UserRepository userRepository)
+    public UserService(@Qualifier("userRepository") UserRepository userRepository, UsernameIndex usernameIndex,
+                       SessionCache sessionCache, PresenceRegistry presenceRegistry, PasswordHasher passwordHasher,
+                       UserChangeCounter userChangeCounter, UserJsonCache userJsonCache, MeterRegistry meterRegistry,
+                       PlatformTransactionManager transactionManager)
     {
         this.userRepository = userRepository;
+        this.usernameIndex = usernameIndex;
+        this.sessionCache = sessionCache;
+        this.presenceRegistry = presenceRegistry;
+        this.passwordHasher = passwordHasher;
+        this.userChangeCounter = userChangeCounter;
+        this.userJsonCache = userJsonCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.successfulLogins = loginCounter(meterRegistry, "success");
+        this.unknownUserLogins = loginCounter(meterRegistry, "unknown_user");
+        this.badPasswordLogins = loginCounter(meterRegistry, "bad_password");
+    }
+
+    private static Counter loginCounter(MeterRegistry meterRegistry, String result)
+    {
+        return Counter.builder("users.logins")
+                .description("Login attempts by their result")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void warmUp()
+    {
+        try (Stream<UserRepository.UsernameEntry> entries = userRepository.streamUsernames())
+        {
+            usernameIndex.warmUp(entries);
+        }
+        presenceRegistry.warmUp(userRepository.findIdsByStatus(UserStatus.ONLINE));
     }
 
-    public List<User> getUsers()
+    @Timed(TIMER_NAME)
+    public List<Long> getOnlineUserIds()
     {
-        return this.userRepository.findAll();
+        return presenceRegistry.onlineUserIds();
+    }
+
+    /*
+     * Returns one page of the user list in the given order, starting after the cursor
+     * (or at the beginning if there is none). A full page means there may be more users,
+     * the caller then hands out the cursor of the last user as the next position.
+     * Only the columns of a UserSummary are read, no entity is loaded.
+     */
+    @Timed(TIMER_NAME)
+    @Transactional(readOnly = true)
+    public List<UserSummary> getUsers(UserSortOrder sortOrder, String after, Integer limit)
+    {
+        Pageable page = PageRequest.of(0, pageSize(limit));
+        UserCursor cursor = after == null ? null : UserCursor.decode(sortOrder, after);
+
+        switch (sortOrder)
+        {
+            case USERNAME:
+                return cursor == null ? userRepository.findPageOrderByUsername(page)
+                        : userRepository.findPageOrderByUsernameAfter(cursor.getUsername(), cursor.getId(), page);
+            case CREATION_DATE:
+                return cursor == null ? userRepository.findPageOrderByCreationDate(page)
+                        : userRepository.findPageOrderByCreationDateAfter(cursor.getCreationDate(), cursor.getId(), page);
+            default:
+                return cursor == null ? userRepository.findPageOrderById(page)
+                        : userRepository.findPageOrderByIdAfter(cursor.getId(), page);
+        }
     }
 
-    //create user service and adding it into the database...
+    /*
+     * Hands every user to the consumer, one at a time and ordered by id. Each user is
+     * detached once it has been consumed, so the persistence context does not grow with
+     * the number of users and the memory use stays the same for any table size.
+     */
+    @Timed(TIMER_NAME)
+    @Transactional(readOnly = true)
+    public void exportUsers(Consumer<User> consumer)
+    {
+        try (Stream<User> users = userRepository.streamAllOrderById())
+        {
+            users.forEach(user -> {
+                consumer.accept(user);
+                entityManager.detach(user);
+            });
+        }
+    }
+
+    public static int pageSize(Integer limit)
+    {
+        if (limit == null)
+        {
+            return DEFAULT_PAGE_SIZE;
+        }
+        if (limit < 1 || limit > MAX_PAGE_SIZE)
+        {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("The limit has to be between 1 and %d", MAX_PAGE_SIZE));
+        }
+        return limit;
+    }
+
+    /*
+     * Creates a user. Like the login it runs without a transaction, so no database connection
+     * is held while the password hasher hashes the password, only the insert gets one.
+     */
+    @Timed(TIMER_NAME)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public User createUser(User newUser)
+    {
+        prepareNewUser(newUser);
+
+        checkIfUserExists(newUser);
+        newUser.setPassword(passwordHasher.hash(newUser.getPassword()));
+        User createdUser = transactionTemplate.execute(status -> {
+            // saves the given entity but data is only persisted in the database once flush() is called,
+            // a taken username makes the flush fail on the unique constraint (-> 409 in GlobalExceptionAdvice)
+            User savedUser = userRepository.save(newUser);
+            userRepository.flush();
+            usernameIndex.putAfterCommit(savedUser.getId(), savedUser.getUsername());
+            presenceRegistry.recordAfterCommit(savedUser.getId(), true);
+            userChangeCounter.incrementAfterCommit();
+            userJsonCache.invalidateAfterCommit(savedUser.getId());
+            return savedUser;
+        });
+
+        log.debug("Created Information for User: {}", createdUser);
+        return createdUser;
+    }
+
+    /*
+     * Creates a batch of users. The usernames of the whole batch are checked with one IN
+     * query (or not at all if the username index can tell), users that are incomplete or
+     * whose username is taken are reported and skipped, and the rest is inserted with JDBC
+     * batching in one transaction, which only starts once the passwords are hashed. The
+     * results are in the order of the input.
+     */
+    @Timed(TIMER_NAME)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public List<UserCreationResult> createUsers(List<User> newUsers)
+    {
+        if (newUsers.size() > MAX_BATCH_SIZE)
+        {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("At most %d users can be created at once", MAX_BATCH_SIZE));
+        }
+
+        Set<String> unknownUsernames = new LinkedHashSet<>();
+        Set<String> takenUsernames = new HashSet<>();
+        for (User newUser : newUsers)
+        {
+            String username = newUser.getUsername();
+            if (username == null)
+            {
+                continue;
+            }
+            switch (usernameIndex.contains(username))
+            {
+                case PRESENT:
+                    takenUsernames.add(username);
+                    break;
+                case UNKNOWN:
+                    unknownUsernames.add(username);
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (!unknownUsernames.isEmpty())
+        {
+            takenUsernames.addAll(userRepository.findExistingUsernames(unknownUsernames));
+        }
+
+        List<UserCreationResult> results = new ArrayList<>(newUsers.size());
+        List<User> usersToSave = new ArrayList<>(newUsers.size());
+        for (User newUser : newUsers)
+        {
+            if (newUser.getName() == null || newUser.getUsername() == null || newUser.getPassword() == null)
+            {
+                results.add(UserCreationResult.rejected(HttpStatus.BAD_REQUEST, newUser, "The name, username and password are required"));
+            }
+            // add() also catches the same username appearing twice in the batch
+            else if (!takenUsernames.add(newUser.getUsername()))
+            {
+                results.add(UserCreationResult.rejected(HttpStatus.CONFLICT, newUser, "The username provided is not unique"));
+            }
+            else
+            {
+                prepareNewUser(newUser);
+                usersToSave.add(newUser);
+                results.add(UserCreationResult.created(newUser));
+            }
+        }
+
+        List<String> rawPasswords = new ArrayList<>(usersToSave.size());
+        for (User newUser : usersToSave)
+        {
+            rawPasswords.add(newUser.getPassword());
+        }
+        List<String> hashedPasswords = passwordHasher.hashAll(rawPasswords);
+        for (int i = 0; i < usersToSave.size(); i++)
+        {
+            usersToSave.get(i).setPassword(hashedPasswords.get(i));
+        }
+
+        if (!usersToSave.isEmpty())
+        {
+            transactionTemplate.executeWithoutResult(status -> {
+                // ids come from the pooled sequence, so the inserts are sent in JDBC batches on flush
+                userRepository.saveAll(usersToSave);
+                userRepository.flush();
+                for (User createdUser : usersToSave)
+                {
+                    usernameIndex.putAfterCommit(createdUser.getId(), createdUser.getUsername());
+                    presenceRegistry.recordAfterCommit(createdUser.getId(), true);
+                    userJsonCache.invalidateAfterCommit(createdUser.getId());
+                }
+                userChangeCounter.incrementAfterCommit();
+            });
+        }
+
+        log.debug("Created {} of {} users in a batch", usersToSave.size(), newUsers.size());
+        return results;
+    }
+
+    private void prepareNewUser(User newUser)
     {
         newUser.setToken(UUID.randomUUID().toString());
         newUser.setStatus(UserStatus.ONLINE);
         newUser.setLogged_in(true);
         newUser.setCreation_date(new java.sql.Date(Calendar.getInstance().getTimeInMillis()));
-
-        checkIfUserExists(newUser);
-        // saves the given entity but data is only persisted in the database once flush() is called
-        newUser = userRepository.save(newUser);
-        userRepository.flush();
-
-        log.debug("Created Information for User: {}", newUser);
-        return newUser;
     }
 
-    //login user
+    /*
+     * Logs a user in. Runs without a transaction, so no database connection is held
+     * while the password hasher checks the password. The status change only goes to
+     * the presence registry, a rehash is written with its own update.
+     */
+    @Timed(TIMER_NAME)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public User loginUser(User userInput)
     {
-        User userByUsername = userRepository.findByUsername(userInput.getUsername());
+        // a name the index knows to be free cannot belong to anyone, no need to ask the database
+        User userByUsername = usernameIndex.contains(userInput.getUsername()) == UsernameIndex.Presence.ABSENT
+                ? null : userRepository.findByUsername(userInput.getUsername());
 
         if(userByUsername == null)
         {
-            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "The username is not correct or the user does not exist");
+            unknownUserLogins.increment();
+            throw AuthenticationFailureException.unknownUser();
         }
-        else if(!userByUsername.getPassword().equals(userInput.getPassword()))
+        else if(!passwordHasher.verify(userInput.getPassword(), userByUsername.getPassword()))
         {
-            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED,"The password is not correct");
+            badPasswordLogins.increment();
+            throw AuthenticationFailureException.badPassword();
         }
+        rehashIfNeeded(userByUsername, userInput.getPassword());
+        // only changes the returned entity, the status columns are written behind by the presence registry
         userByUsername.setStatus(UserStatus.ONLINE);
         userByUsername.setLogged_in(true);
-        userRepository.save(userByUsername);
+        presenceRegistry.markOnline(userByUsername.getId());
+        userChangeCounter.increment();
+        userJsonCache.invalidate(userByUsername.getId());
+        successfulLogins.increment();
 
         log.debug("Logged in User: {}", userByUsername);
         return userByUsername;
     }
 
     //logout user
+    @Timed(TIMER_NAME)
     public User logoutUser(Long id)
     {
         User userById = userRepository.findUserById(id);
 
         if (userById == null)
         {
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "The token is not correct or the token does not exist");
+            throw UserNotFoundException.byToken();
         }
         userById.setStatus(UserStatus.OFFLINE);
         userById.setLogged_in(false);
+        presenceRegistry.markOffline(userById.getId());
+        userChangeCounter.increment();
+        userJsonCache.invalidateAfterCommit(userById.getId());
+        sessionCache.invalidateAfterCommit(userById.getToken());
         return userById;
     }
 
+    // upgrades plain text passwords and hashes of an outdated cost, the login itself never fails because of it
+    private void rehashIfNeeded(User user, String rawPassword)
+    {
+        String storedPassword = user.getPassword();
+        if (!passwordHasher.needsRehash(storedPassword))
+        {
+            return;
+        }
+        try
+        {
+            String newPassword = passwordHasher.hash(rawPassword);
+            if (userRepository.updatePassword(user.getId(), storedPassword, newPassword) == 1)
+            {
+                user.setPassword(newPassword);
+            }
+        }
+        catch (ResponseStatusException e)
+        {
+            log.debug("Rehash of the password of user {} postponed: {}", user.getId(), e.getReason());
+        }
+    }
+
     //gets the user by its corresponding id and return him/her
+    @Timed(TIMER_NAME)
     public User getUserById(Long userId)
     {
         User userById = userRepository.findUserById(userId);
 
         if (userById == null)
         {
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "The id is not correct or the id does not exist");
+            throw UserNotFoundException.byId();
         }
 
         log.debug("Found User by Id: {}", userById);
         return userById;
     }
 
+    // the columns of the user shown by the API, without loading the entity
+    @Timed(TIMER_NAME)
+    @Transactional(readOnly = true)
+    public UserSummary getUserSummary(Long userId)
+    {
+        UserSummary userSummary = userRepository.findSummaryById(userId);
+
+        if (userSummary == null)
+        {
+            throw UserNotFoundException.byId();
+        }
+        return userSummary;
+    }
+
+    // the version of the user without loading it, null if there is no user with that id
+    @Timed(TIMER_NAME)
+    @Transactional(readOnly = true)
+    public Long getUserVersion(Long userId)
+    {
+        return userRepository.findVersionById(userId);
+    }
+
+    /*
+     * Looks up many users by id in one read-only transaction, with one IN query per chunk of
+     * LOOKUP_CHUNK_SIZE ids. The map is in the order of the given ids (duplicates only once), ids
+     * without a user have no entry.
+     */
+    @Timed(TIMER_NAME)
+    @Transactional(readOnly = true)
+    public Map<Long, UserSummary> getUserSummaries(List<Long> userIds)
+    {
+        if (userIds.size() > MAX_LOOKUP_SIZE)
+        {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, String.format("At most %d users can be looked up at once", MAX_LOOKUP_SIZE));
+        }
+        List<Long> distinctIds = new ArrayList<>(new LinkedHashSet<>(userIds));
+        if (distinctIds.contains(null))
+        {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "The ids can not be null");
+        }
+
+        Map<Long, UserSummary> summariesById = new HashMap<>();
+        for (int from = 0; from < distinctIds.size(); from += LOOKUP_CHUNK_SIZE)
+        {
+            List<Long> chunk = distinctIds.subList(from, Math.min(from + LOOKUP_CHUNK_SIZE, distinctIds.size()));
+            for (UserSummary userSummary : userRepository.findSummariesByIdIn(chunk))
+            {
+                summariesById.put(userSummary.getId(), userSummary);
+            }
+        }
+
+        Map<Long, UserSummary> orderedSummaries = new LinkedHashMap<>();
+        for (Long id : distinctIds)
+        {
+            UserSummary userSummary = summariesById.get(id);
+            if (userSummary != null)
+            {
+                orderedSummaries.put(id, userSummary);
+            }
+        }
+        return orderedSummaries;
+    }
+
     //updates a user's birthday or/and username
+    @Timed(TIMER_NAME)
     public void updateUser(Long id, User userInput)
+    {
+        updateUser(id, userInput, null);
+    }
+
+    //updates a user's birthday or/and username if the user still has one of the expected versions (null: any)
+    @Timed(TIMER_NAME)
+    public void updateUser(Long id, User userInput, Collection<Long> expectedVersions)
     {
         User userForUpdate = getUserById(id);
+        checkVersion(userForUpdate, expectedVersions);
 
-        if (userRepository.findByUsername(userInput.getUsername())!=null)
+        if (userInput.getUsername() != null && isUsernameTaken(userInput.getUsername()))
         {
-            throw new ResponseStatusException(HttpStatus.CONFLICT, "You can not use that username because it is not unique");
+            throw UsernameConflictException.onUpdate();
         }
         if (userInput.getUsername() != null)
         {
+            userRepository.claimUsername(userForUpdate.getId(), userForUpdate.getUsername(), userInput.getUsername());
             userForUpdate.setUsername(userInput.getUsername());
         }
 
         userForUpdate.setBirthday(userInput.getBirthday());
         userRepository.save(userForUpdate);
         userRepository.flush();
+        usernameIndex.putAfterCommit(userForUpdate.getId(), userForUpdate.getUsername());
+        userChangeCounter.incrementAfterCommit();
+        userJsonCache.invalidateAfterCommit(userForUpdate.getId());
+    }
+
+    /*
+     * Changes only the fields present in the patch. The user usually comes from the second-level
+     * cache, and as User is mapped with @DynamicUpdate the flush sends one UPDATE of the changed
+     * columns and the version, or nothing at all if the patch changes nothing. An unchanged username
+     * is not checked for uniqueness again.
+     */
+    @Timed(TIMER_NAME)
+    public void patchUser(Long id, UserPatch patch)
+    {
+        patchUser(id, patch, null);
+    }
+
+    //the same, if the user still has one of the expected versions (null: any)
+    @Timed(TIMER_NAME)
+    public void patchUser(Long id, UserPatch patch, Collection<Long> expectedVersions)
+    {
+        User userForUpdate = getUserById(id);
+        checkVersion(userForUpdate, expectedVersions);
+        boolean changed = false;
+
+        String username = patch.getUsername();
+        if (username != null && !username.equals(userForUpdate.getUsername()))
+        {
+            if (isUsernameTaken(username))
+            {
+                throw UsernameConflictException.onUpdate();
+            }
+            userRepository.claimUsername(userForUpdate.getId(), userForUpdate.getUsername(), username);
+            userForUpdate.setUsername(username);
+            changed = true;
+        }
+        if (patch.hasBirthday())
+        {
+            userForUpdate.setBirthday(patch.getBirthday());
+            changed = true;
+        }
+        if (!changed)
+        {
+            return;
+        }
+        // a username taken concurrently makes the flush fail on the unique constraint (-> 409 in GlobalExceptionAdvice)
+        userRepository.flush();
+        usernameIndex.putAfterCommit(userForUpdate.getId(), userForUpdate.getUsername());
+        userChangeCounter.incrementAfterCommit();
+        userJsonCache.invalidateAfterCommit(userForUpdate.getId());
     }
+
+    /*
+     * Compares the versions a client based its update on (the If-Match of the request) with the
+     * @Version of the loaded user. An update that passes here and still loses against a concurrent
+     * one fails on the version column when it is flushed.
+     */
+    private void checkVersion(User user, Collection<Long> expectedVersions)
+    {
+        if (expectedVersions != null && !expectedVersions.contains(user.getVersion()))
+        {
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "The user was changed since the version in If-Match");
+        }
+    }
+
     /*
      * This is a helper method that will check the uniqueness criteria of the username and the name
-     * defined in the User entity. The method will do nothing if the input is unique and throw an error otherwise.
+     * defined in the User entity. It only rejects usernames the username index already knows, without
+     * a query. Everything else is left to the unique constraint of the username column, which is the
+     * only check that also holds for two concurrent requests with the same username.
      *
      * @param userToBeCreated
-     * @throws SopraServiceException
+     * @throws UsernameConflictException
      * @see User
      */
     void checkIfUserExists(User userToBeCreated)
     {
-        User userByUsername = userRepository.findByUsername(userToBeCreated.getUsername());
-
-        String baseErrorMessage = "The %s provided %s not unique. Therefore, the user could not be created!";
-        if (userByUsername != null)
+        if (usernameIndex.contains(userToBeCreated.getUsername()) == UsernameIndex.Presence.PRESENT)
         {
-            throw new ResponseStatusException(HttpStatus.CONFLICT, String.format(baseErrorMessage, "username", "is"));
+            throw UsernameConflictException.onCreate();
         }
 
     }
 
+    /*
+     * Answers from the username index where possible and only queries the database if the
+     * index cannot tell. A user found that way is added to the index for the next lookup.
+     */
+    private boolean isUsernameTaken(String username)
+    {
+        switch (usernameIndex.contains(username))
+        {
+            case PRESENT:
+                return true;
+            case ABSENT:
+                return false;
+            default:
+                User userByUsername = userRepository.findByUsername(username);
+                if (userByUsername == null)
+                {
+                    return false;
+                }
+                usernameIndex.put(userByUsername.getId(), userByUsername.getUsername());
+                return true;
+        }
+    }
+
 }
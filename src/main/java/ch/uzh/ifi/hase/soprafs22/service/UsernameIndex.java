@@ -0,0 +1,150 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Username Index
+ * In-memory username -> id index in front of UserRepository.findByUsername.
+ * As long as every username of the USER table fits into the index it is
+ * "complete" and also answers negative lookups ("this name is free") without
+ * a query. Once an entry had to be evicted to respect the maximum size, only
+ * positive lookups are answered from memory and everything else falls back to
+ * the database.
+ * Entries are only added after the transaction that wrote them has committed.
+ * The index assumes this application is the only writer of the USER table.
+ */
+@Component
+public class UsernameIndex
+{
+    public enum Presence
+    {
+        PRESENT, ABSENT, UNKNOWN
+    }
+
+    private final Logger log = LoggerFactory.getLogger(UsernameIndex.class);
+
+    private final int maxSize;
+    private final Map<String, Long> idsByUsername = new ConcurrentHashMap<>();
+    private final Map<Long, String> usernamesById = new ConcurrentHashMap<>();
+    // insertion order for eviction, may hold names that have been renamed in the meantime
+    private final Queue<String> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile boolean complete = false;
+
+    public UsernameIndex(@Value("${users.username-index.max-size:100000}") int maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    public Presence contains(String username)
+    {
+        // the username column is not nullable
+        if (username == null)
+        {
+            return Presence.ABSENT;
+        }
+        if (idsByUsername.containsKey(username))
+        {
+            hits.increment();
+            return Presence.PRESENT;
+        }
+        if (complete)
+        {
+            hits.increment();
+            return Presence.ABSENT;
+        }
+        misses.increment();
+        return Presence.UNKNOWN;
+    }
+
+    public Long idOf(String username)
+    {
+        return username == null ? null : idsByUsername.get(username);
+    }
+
+    /*
+     * Loads the existing usernames. The index only becomes complete if all of them fit,
+     * users written while the warm-up runs are added by their own commit callbacks.
+     */
+    public void warmUp(Stream<UserRepository.UsernameEntry> entries)
+    {
+        Iterator<UserRepository.UsernameEntry> iterator = entries.iterator();
+        while (iterator.hasNext() && idsByUsername.size() < maxSize)
+        {
+            UserRepository.UsernameEntry entry = iterator.next();
+            put(entry.getId(), entry.getUsername());
+        }
+        complete = !iterator.hasNext() && idsByUsername.size() <= maxSize;
+        log.info("Username index warmed up with {} entries, complete: {}", idsByUsername.size(), complete);
+    }
+
+    public void put(Long id, String username)
+    {
+        if (id == null || username == null)
+        {
+            return;
+        }
+        String previous = usernamesById.put(id, username);
+        if (previous != null && !previous.equals(username))
+        {
+            idsByUsername.remove(previous, id);
+        }
+        if (idsByUsername.put(username, id) == null)
+        {
+            insertionOrder.add(username);
+            evictIfFull();
+        }
+    }
+
+    // adds the user once the surrounding transaction has committed, a rolled back insert never shows up
+    public void putAfterCommit(Long id, String username)
+    {
+        AfterCommit.run(() -> put(id, username));
+    }
+
+    // for callers that emptied the USER table, an empty index is then complete again
+    public void clear()
+    {
+        idsByUsername.clear();
+        usernamesById.clear();
+        insertionOrder.clear();
+        complete = true;
+    }
+
+    private void evictIfFull()
+    {
+        while (idsByUsername.size() > maxSize)
+        {
+            String eldest = insertionOrder.poll();
+            if (eldest == null)
+            {
+                return;
+            }
+            Long id = idsByUsername.remove(eldest);
+            if (id != null)
+            {
+                usernamesById.remove(id, eldest);
+                complete = false;
+            }
+        }
+    }
+
+    public boolean isComplete() {return complete;}
+
+    public int size() {return idsByUsername.size();}
+
+    public long getHitCount() {return hits.sum();}
+
+    public long getMissCount() {return misses.sum();}
+}
@@ -0,0 +1,63 @@
+package ch.uzh.ifi.hase.soprafs22.sharding;
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerationException;
+import org.hibernate.id.enhanced.Optimizer;
+import org.hibernate.id.enhanced.OptimizerFactory;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shard Aware Sequence Generator
+ * Pooled sequence ids that carry the shard they were generated on: a user
+ * inserted on shard s of n shards gets the id value * n + s, where the value
+ * comes from the sequence of that shard. Every shard has its own optimizer,
+ * the values fetched from one shard's sequence are never used for another.
+ * The number of shards is the Hibernate setting users.sharding.count
+ * (ShardingConfig), without it the ids are the plain sequence values.
+ */
+public class ShardAwareSequenceGenerator extends SequenceStyleGenerator
+{
+    public static final String SHARD_COUNT = "users.sharding.count";
+
+    private final Map<Integer, Optimizer> optimizers = new ConcurrentHashMap<>();
+    private int shardCount;
+    private Class<?> returnedClass;
+    private int initialValue;
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException
+    {
+        super.configure(type, params, serviceRegistry);
+        Map<?, ?> settings = serviceRegistry.getService(ConfigurationService.class).getSettings();
+        this.shardCount = ConfigurationHelper.getInt(SHARD_COUNT, settings, 1);
+        this.returnedClass = type.getReturnedClass();
+        this.initialValue = ConfigurationHelper.getInt(INITIAL_PARAM, params, -1);
+    }
+
+    @Override
+    public Serializable generate(SharedSessionContractImplementor session, Object object) throws HibernateException
+    {
+        if (shardCount == 1)
+        {
+            return super.generate(session, object);
+        }
+        Integer shard = ShardContext.current();
+        if (shard == null)
+        {
+            throw new IdentifierGenerationException("No shard selected for the id of " + object);
+        }
+        Optimizer optimizer = optimizers.computeIfAbsent(shard, s -> OptimizerFactory.buildOptimizer(
+                getOptimizer().getClass().getName(), returnedClass, getOptimizer().getIncrementSize(), initialValue));
+        long value = ((Number) optimizer.generate(getDatabaseStructure().buildCallback(session))).longValue();
+        return UserShards.idOf(value, shard, shardCount);
+    }
+}
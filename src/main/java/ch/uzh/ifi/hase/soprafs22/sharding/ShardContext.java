@@ -0,0 +1,92 @@
+package ch.uzh.ifi.hase.soprafs22.sharding;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Shard Context
+ * The shard the statements of the current thread go to, read by
+ * ShardRoutingDataSource when a connection is requested and by
+ * ShardAwareSequenceGenerator. It is either pinned for the duration of one
+ * call or bound to the transaction by its first repository call, so the
+ * flush at commit still reaches the shard the transaction is on.
+ */
+public final class ShardContext
+{
+    @FunctionalInterface
+    interface ShardCall<T>
+    {
+        T call() throws Throwable;
+    }
+
+    private static final ThreadLocal<Integer> PINNED = new ThreadLocal<>();
+    // resource key of the shard the current transaction is bound to
+    private static final Object TRANSACTION_SHARD = new Object();
+
+    private ShardContext()
+    {
+    }
+
+    // null if no shard is selected
+    public static Integer current()
+    {
+        Integer pinned = PINNED.get();
+        return pinned != null ? pinned : transactionShard();
+    }
+
+    static boolean isPinned()
+    {
+        return PINNED.get() != null;
+    }
+
+    static Integer transactionShard()
+    {
+        return (Integer) TransactionSynchronizationManager.getResource(TRANSACTION_SHARD);
+    }
+
+    static <T> T pinned(int shard, ShardCall<T> call) throws Throwable
+    {
+        Integer previous = PINNED.get();
+        PINNED.set(shard);
+        try
+        {
+            return call.call();
+        }
+        finally
+        {
+            if (previous == null)
+            {
+                PINNED.remove();
+            }
+            else
+            {
+                PINNED.set(previous);
+            }
+        }
+    }
+
+    // binds the current transaction to the shard until it completes, a suspended transaction takes it along
+    static void bindTransaction(int shard)
+    {
+        TransactionSynchronizationManager.bindResource(TRANSACTION_SHARD, shard);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization()
+        {
+            @Override
+            public void suspend()
+            {
+                TransactionSynchronizationManager.unbindResourceIfPossible(TRANSACTION_SHARD);
+            }
+
+            @Override
+            public void resume()
+            {
+                TransactionSynchronizationManager.bindResource(TRANSACTION_SHARD, shard);
+            }
+
+            @Override
+            public void afterCompletion(int status)
+            {
+                TransactionSynchronizationManager.unbindResourceIfPossible(TRANSACTION_SHARD);
+            }
+        });
+    }
+}
@@ -0,0 +1,90 @@
+package ch.uzh.ifi.hase.soprafs22.sharding;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shard Routing DataSource
+ * Hands out connections of the pool of the shard selected in the
+ * ShardContext. Outside of a transaction a connection without a selected
+ * shard goes to the first shard, that is where the JDBC metadata is read from
+ * at startup. Inside of one it fails instead of silently going to the wrong
+ * database, every statement of a transaction has to be routed.
+ * Like the read/write routing it is chosen when a connection is requested,
+ * so it has to be wrapped in a LazyConnectionDataSourceProxy: JPA requests
+ * the connection when the transaction begins, before the first repository
+ * call selected the shard.
+ * Connections handed out are counted as users.sharding.connections, tagged
+ * with the shard. Like the read/write routing the counters are bound as a
+ * MeterBinder, the meter registry depends on every DataSource.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource implements AutoCloseable, MeterBinder
+{
+    private final LongAdder[] connections;
+
+    public ShardRoutingDataSource(List<? extends DataSource> shards)
+    {
+        Map<Object, Object> targets = new HashMap<>();
+        this.connections = new LongAdder[shards.size()];
+        for (int shard = 0; shard < shards.size(); shard++)
+        {
+            targets.put(shard, shards.get(shard));
+            connections[shard] = new LongAdder();
+        }
+        setTargetDataSources(targets);
+        setLenientFallback(false);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry)
+    {
+        for (int shard = 0; shard < connections.length; shard++)
+        {
+            FunctionCounter.builder("users.sharding.connections", connections[shard], LongAdder::sum)
+                    .description("Connections handed out by the shard routing, by shard")
+                    .tag("shard", String.valueOf(shard))
+                    .register(meterRegistry);
+        }
+    }
+
+    public DataSource getShard(int shard)
+    {
+        return getResolvedDataSources().get(shard);
+    }
+
+    // called by Spring on shutdown, the pools of the shards are no beans of their own
+    @Override
+    public void close() throws Exception
+    {
+        for (DataSource shard : getResolvedDataSources().values())
+        {
+            if (shard instanceof AutoCloseable)
+            {
+                ((AutoCloseable) shard).close();
+            }
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey()
+    {
+        Integer shard = ShardContext.current();
+        if (shard == null)
+        {
+            if (TransactionSynchronizationManager.isActualTransactionActive())
+            {
+                throw new IllegalStateException("No shard selected, the connection was not requested by a routed UserRepository call");
+            }
+            shard = 0;
+        }
+        connections[shard].increment();
+        return shard;
+    }
+}
@@ -0,0 +1,53 @@
+package ch.uzh.ifi.hase.soprafs22.sharding;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Shard Scatter Executor
+ * The threads ShardingRepositoryAspect asks several shards on at once. The
+ * threads and the queue are bounded: once both are full, a call runs on the
+ * calling thread instead, so a burst of list requests only makes the scatter
+ * ask one shard after the other. The pool is shut down with the context.
+ * It is no java.util.concurrent.Executor on purpose, a bean of that type
+ * would replace the executor Spring Boot sets up for async MVC requests such
+ * as the export.
+ */
+public class ShardScatterExecutor
+{
+    private final ThreadPoolExecutor executor;
+
+    public ShardScatterExecutor(int threads, int queueCapacity)
+    {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "shard-scatter-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    // threads are started lazily on a request thread, they must not keep Tomcat's class loader
+                    thread.setContextClassLoader(ShardScatterExecutor.class.getClassLoader());
+                    return thread;
+                }, (runnable, pool) -> {
+                    if (pool.isShutdown())
+                    {
+                        throw new RejectedExecutionException("The shard scatter pool is shut down");
+                    }
+                    runnable.run();
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public <T> CompletableFuture<T> supplyAsync(Supplier<T> call)
+    {
+        return CompletableFuture.supplyAsync(call, executor);
+    }
+
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,668 @@
+package ch.uzh.ifi.hase.soprafs22.sharding;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.entity.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Sharding Repository Aspect
+ * Sends every UserRepository call to the shards it concerns:
+ * - calls for one user go to the shard of its id or its token. A new user is
+ * inserted on the shard of its username, together with the claim of the
+ * username, and its token gets the shard (UserShards). The first of these
+ * calls binds the transaction to that shard, a call for another shard in the
+ * same transaction runs in a transaction of its own.
+ * - findByUsername reads the claim of the username on the shard of its hash,
+ * which names the id and so the shard of the user
+ * - claimUsername claims the new username of a rename on the shard of its
+ * hash before the rename is flushed, a username claimed already fails there
+ * like on the unique constraint. The previous username is released once the
+ * rename committed.
+ * - lookups and presence updates of many ids are split by shard
+ * - the user list pages are read from every shard at once and merged in
+ * their sort order, the keyset cursor works the same on every shard
+ * - the streams read one shard after the other, each in a read-only
+ * transaction that ends when its part of the stream is consumed
+ * - everything else that concerns all users (counts, tokens without a shard,
+ * ...) is asked on every shard at once, on the ShardScatterExecutor
+ * Calls spanning several shards run in one transaction per shard, they are
+ * atomic per shard only. Inserts and claims that had to commit on another
+ * shard than the one of the caller's transaction are undone if the caller's
+ * transaction rolls back. In between, or if the undo fails, they are visible.
+ * It runs inside of the RequestTimingAspect (ORDER) and outside of the
+ * transaction advice of UserRepository, which has to find the shard set.
+ * A method of UserRepository that route() does not know fails the startup of
+ * the context, not the first request that calls it.
+ */
+@Aspect
+@Order(ShardingRepositoryAspect.ORDER)
+public class ShardingRepositoryAspect
+{
+    public static final int ORDER = Ordered.HIGHEST_PRECEDENCE + 200;
+
+    private static final Comparator<UserSummary> BY_ID = Comparator.comparing(UserSummary::getId);
+    private static final Comparator<UserSummary> BY_USERNAME = Comparator.comparing(UserSummary::getUsername).thenComparing(BY_ID);
+    private static final Comparator<UserSummary> BY_CREATION_DATE = Comparator.comparing(UserSummary::getCreation_date).thenComparing(BY_ID);
+
+    private static final String FIND_CLAIM = "select user_id from USERNAME_CLAIM where username = ?";
+    private static final String INSERT_CLAIM = "insert into USERNAME_CLAIM (username, user_id) values (?, ?)";
+    private static final String DELETE_CLAIM = "delete from USERNAME_CLAIM where username = ? and user_id = ?";
+    private static final String DELETE_CLAIMS = "delete from USERNAME_CLAIM";
+    private static final String DELETE_USER = "delete from \"user\" where id = ?";
+
+    // the methods of UserRepository route() sends to the shards, one per case
+    static final Set<String> ROUTED_METHODS = Collections.unmodifiableSet(new TreeSet<>(Arrays.asList(
+            "findByUsername", "findByToken", "findUserById", "findSummaryById", "findVersionById", "updatePassword",
+            "save", "saveAll", "claimUsername", "flush", "findSummariesByIdIn", "updatePresence",
+            "findPageOrderById", "findPageOrderByIdAfter", "findPageOrderByUsername", "findPageOrderByUsernameAfter",
+            "findPageOrderByCreationDate", "findPageOrderByCreationDateAfter", "streamAllOrderById", "streamUsernames",
+            "findExistingUsernames", "findIdsByStatus", "count", "deleteAll")));
+
+    private final Logger log = LoggerFactory.getLogger(ShardingRepositoryAspect.class);
+    private final UserShards userShards;
+    private final ObjectProvider<PlatformTransactionManager> transactionManager;
+    // the DataSource of the transactions, so the claims take part in them
+    private final ObjectProvider<DataSource> dataSource;
+    private final ObjectProvider<EntityManagerFactory> entityManagerFactory;
+    private final ShardScatterExecutor scatterExecutor;
+
+    public ShardingRepositoryAspect(UserShards userShards, ObjectProvider<PlatformTransactionManager> transactionManager,
+                                    ObjectProvider<DataSource> dataSource, ObjectProvider<EntityManagerFactory> entityManagerFactory,
+                                    ShardScatterExecutor scatterExecutor)
+    {
+        this.userShards = userShards;
+        this.transactionManager = transactionManager;
+        this.dataSource = dataSource;
+        this.entityManagerFactory = entityManagerFactory;
+        this.scatterExecutor = scatterExecutor;
+    }
+
+    // a method without a route would reach a single shard as if there were no others
+    @PostConstruct
+    void checkRoutes()
+    {
+        Set<String> unrouted = unroutedMethods(UserRepository.class);
+        if (!unrouted.isEmpty())
+        {
+            throw new IllegalStateException("UserRepository." + unrouted + " are not routed to the shards");
+        }
+    }
+
+    static Set<String> unroutedMethods(Class<?> repositoryInterface)
+    {
+        Set<String> unrouted = new TreeSet<>();
+        for (Method method : repositoryInterface.getMethods())
+        {
+            if (!Modifier.isStatic(method.getModifiers()) && !ROUTED_METHODS.contains(method.getName()))
+            {
+                unrouted.add(method.getName());
+            }
+        }
+        return unrouted;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Around("this(ch.uzh.ifi.hase.soprafs22.repository.UserRepository)")
+    public Object route(ProceedingJoinPoint joinPoint) throws Throwable
+    {
+        // already sent to its shard by this aspect
+        if (ShardContext.isPinned())
+        {
+            return joinPoint.proceed();
+        }
+        Object[] args = joinPoint.getArgs();
+        String method = joinPoint.getSignature().getName();
+        switch (method)
+        {
+            case "findByUsername":
+                return findByUsername(joinPoint, (String) args[0]);
+            case "findByToken":
+                return findByToken(joinPoint, (String) args[0]);
+            case "findUserById":
+            case "findSummaryById":
+            case "findVersionById":
+            case "updatePassword":
+                return onShard(joinPoint, userShards.shardOf((Long) args[0]), args);
+            case "save":
+                return save(joinPoint, (User) args[0]);
+            case "saveAll":
+                return saveAll(joinPoint, (Iterable<User>) args[0]);
+            case "claimUsername":
+                claimUsername((Long) args[0], (String) args[1], (String) args[2]);
+                return null;
+            case "flush":
+                // goes to the shard the transaction is bound to
+                return joinPoint.proceed();
+            case "findSummariesByIdIn":
+                return concat(scatter(joinPoint, argsByShardOfIds(args)));
+            case "updatePresence":
+                return sum(scatter(joinPoint, argsByShardOfIds(args))).intValue();
+            case "findPageOrderById":
+            case "findPageOrderByIdAfter":
+                return mergePages(scatter(joinPoint, argsForEveryShard(args)), BY_ID, (Pageable) args[args.length - 1]);
+            case "findPageOrderByUsername":
+            case "findPageOrderByUsernameAfter":
+                return mergePages(scatter(joinPoint, argsForEveryShard(args)), BY_USERNAME, (Pageable) args[args.length - 1]);
+            case "findPageOrderByCreationDate":
+            case "findPageOrderByCreationDateAfter":
+                return mergePages(scatter(joinPoint, argsForEveryShard(args)), BY_CREATION_DATE, (Pageable) args[args.length - 1]);
+            case "streamAllOrderById":
+            case "streamUsernames":
+                return streamEveryShard(joinPoint, args);
+            case "findExistingUsernames":
+            case "findIdsByStatus":
+                return concat(scatter(joinPoint, argsForEveryShard(args)));
+            case "count":
+                return sum(scatter(joinPoint, argsForEveryShard(args)));
+            case "deleteAll":
+                deleteAll(joinPoint);
+                return null;
+            default:
+                // toString and the like, checkRoutes() made sure UserRepository declares no other method
+                return joinPoint.proceed();
+        }
+    }
+
+    // an update goes to the shard of the user's id
+    private Object save(ProceedingJoinPoint joinPoint, User user) throws Throwable
+    {
+        if (user.getId() != null)
+        {
+            return onShard(joinPoint, userShards.shardOf(user.getId()), joinPoint.getArgs());
+        }
+        return insert(joinPoint, userShards.shardOf(user.getUsername()), joinPoint.getArgs(), Collections.singletonList(user));
+    }
+
+    // one call per shard with the users of that shard, the result is grouped by shard
+    @SuppressWarnings("unchecked")
+    private Object saveAll(ProceedingJoinPoint joinPoint, Iterable<User> users) throws Throwable
+    {
+        Map<Integer, List<User>> newUsersByShard = new TreeMap<>();
+        Map<Integer, List<User>> usersByShard = new TreeMap<>();
+        for (User user : users)
+        {
+            if (user.getId() == null)
+            {
+                newUsersByShard.computeIfAbsent(userShards.shardOf(user.getUsername()), shard -> new ArrayList<>()).add(user);
+            }
+            else
+            {
+                usersByShard.computeIfAbsent(userShards.shardOf(user.getId()), shard -> new ArrayList<>()).add(user);
+            }
+        }
+        List<User> savedUsers = new ArrayList<>();
+        for (Map.Entry<Integer, List<User>> shardUsers : newUsersByShard.entrySet())
+        {
+            savedUsers.addAll((List<User>) insert(joinPoint, shardUsers.getKey(), new Object[]{shardUsers.getValue()}, shardUsers.getValue()));
+        }
+        for (Map.Entry<Integer, List<User>> shardUsers : usersByShard.entrySet())
+        {
+            savedUsers.addAll((List<User>) onShard(joinPoint, shardUsers.getKey(), new Object[]{shardUsers.getValue()}));
+        }
+        return savedUsers;
+    }
+
+    /*
+     * Inserts new users on the shard of their usernames and claims the usernames there. The ids are
+     * generated when the users are persisted, their inserts follow on flush in the same transaction.
+     */
+    private Object insert(ProceedingJoinPoint joinPoint, int shard, Object[] args, List<User> users) throws Throwable
+    {
+        for (User user : users)
+        {
+            if (userShards.shardOfToken(user.getToken()) == null)
+            {
+                user.setToken(userShards.tokenOn(shard, user.getToken()));
+            }
+        }
+        ShardContext.ShardCall<Object> write = () -> {
+            Object saved = joinPoint.proceed(args);
+            JdbcTemplate jdbcTemplate = jdbcTemplate();
+            for (User user : users)
+            {
+                jdbcTemplate.update(INSERT_CLAIM, user.getUsername(), user.getId());
+            }
+            return saved;
+        };
+        ShardContext.ShardCall<Object> undo = () -> {
+            JdbcTemplate jdbcTemplate = jdbcTemplate();
+            for (User user : users)
+            {
+                jdbcTemplate.update(DELETE_CLAIM, user.getUsername(), user.getId());
+                jdbcTemplate.update(DELETE_USER, user.getId());
+                entityManagerFactory.getObject().getCache().evict(User.class, user.getId());
+            }
+            return null;
+        };
+        // without a transaction of the caller the users and their claims still commit together
+        return TransactionSynchronizationManager.isActualTransactionActive()
+                ? onShard(shard, false, write, undo) : inTransaction(shard, false, write);
+    }
+
+    // the claim names the id and with it the shard of the user, a username without a claim has no user
+    private Object findByUsername(ProceedingJoinPoint joinPoint, String username) throws Throwable
+    {
+        if (username == null)
+        {
+            return null;
+        }
+        Long id = (Long) besideTransaction(userShards.shardOf(username), true, () -> {
+            List<Long> claims = jdbcTemplate().queryForList(FIND_CLAIM, Long.class, username);
+            return claims.isEmpty() ? null : claims.get(0);
+        }, null);
+        return id == null ? null : onShard(joinPoint, userShards.shardOf(id), joinPoint.getArgs());
+    }
+
+    // the tokens of users created before the users were sharded carry no shard, those are asked on every shard
+    private Object findByToken(ProceedingJoinPoint joinPoint, String token) throws Throwable
+    {
+        Integer shard = userShards.shardOfToken(token);
+        return shard != null ? onShard(joinPoint, shard, joinPoint.getArgs()) : first(scatter(joinPoint, argsForEveryShard(joinPoint.getArgs())));
+    }
+
+    /*
+     * Claims the new username of a rename on the shard of its hash, a conflict fails the rename before it is
+     * flushed. The previous username is released with the rename if it is claimed on the shard of the
+     * transaction, otherwise once the rename committed.
+     */
+    private void claimUsername(Long id, String previousUsername, String username) throws Throwable
+    {
+        if (username.equals(previousUsername))
+        {
+            return;
+        }
+        besideTransaction(userShards.shardOf(username), false,
+                () -> jdbcTemplate().update(INSERT_CLAIM, username, id),
+                () -> jdbcTemplate().update(DELETE_CLAIM, username, id));
+        if (previousUsername == null)
+        {
+            return;
+        }
+        int previousShard = userShards.shardOf(previousUsername);
+        ShardContext.ShardCall<Object> release = () -> jdbcTemplate().update(DELETE_CLAIM, previousUsername, id);
+        Integer transactionShard = ShardContext.transactionShard();
+        if (!TransactionSynchronizationManager.isActualTransactionActive())
+        {
+            inTransaction(previousShard, false, release);
+        }
+        else if (transactionShard == null || transactionShard != previousShard)
+        {
+            afterCompletion(previousShard, true, release);
+        }
+        else
+        {
+            ShardContext.pinned(previousShard, release);
+        }
+    }
+
+    // every shard in a transaction of its own, the users and their claims
+    private void deleteAll(ProceedingJoinPoint joinPoint) throws Throwable
+    {
+        Map<Integer, ShardContext.ShardCall<Object>> calls = new TreeMap<>();
+        for (int shard = 0; shard < userShards.count(); shard++)
+        {
+            calls.put(shard, () -> {
+                joinPoint.proceed();
+                return jdbcTemplate().update(DELETE_CLAIMS);
+            });
+        }
+        scatter(calls, false);
+    }
+
+    private Object onShard(ProceedingJoinPoint joinPoint, int shard, Object[] args) throws Throwable
+    {
+        return onShard(shard, isRead(joinPoint), () -> joinPoint.proceed(args), null);
+    }
+
+    /*
+     * Runs a call for one shard. It joins the current transaction if that is on the same shard
+     * or on none yet (and then binds it to the shard), otherwise it gets a transaction of its own,
+     * whose writes are undone if the current transaction rolls back.
+     */
+    private Object onShard(int shard, boolean readOnly, ShardContext.ShardCall<Object> call, ShardContext.ShardCall<Object> undo) throws Throwable
+    {
+        if (TransactionSynchronizationManager.isActualTransactionActive())
+        {
+            Integer transactionShard = ShardContext.transactionShard();
+            if (transactionShard == null)
+            {
+                ShardContext.bindTransaction(shard);
+            }
+            else if (transactionShard != shard)
+            {
+                return inTransactionBeside(shard, readOnly, call, undo);
+            }
+        }
+        return ShardContext.pinned(shard, call);
+    }
+
+    /*
+     * Like onShard, but a transaction that is not bound yet is left for the shard of its user. Without
+     * a transaction the call gets one as well, the claims are only read and written in transactions.
+     */
+    private Object besideTransaction(int shard, boolean readOnly, ShardContext.ShardCall<Object> call, ShardContext.ShardCall<Object> undo) throws Throwable
+    {
+        if (!TransactionSynchronizationManager.isActualTransactionActive())
+        {
+            return inTransaction(shard, readOnly, call);
+        }
+        Integer transactionShard = ShardContext.transactionShard();
+        if (transactionShard == null || transactionShard != shard)
+        {
+            return inTransactionBeside(shard, readOnly, call, undo);
+        }
+        return ShardContext.pinned(shard, call);
+    }
+
+    private Object inTransactionBeside(int shard, boolean readOnly, ShardContext.ShardCall<Object> call, ShardContext.ShardCall<Object> undo) throws Throwable
+    {
+        Object result = inTransaction(shard, readOnly, call);
+        if (undo != null)
+        {
+            afterCompletion(shard, false, undo);
+        }
+        return result;
+    }
+
+    // runs the call on the shard in a transaction of its own once the current transaction committed or rolled back
+    private void afterCompletion(int shard, boolean committed, ShardContext.ShardCall<Object> call)
+    {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization()
+        {
+            @Override
+            public void afterCompletion(int status)
+            {
+                if ((status == STATUS_COMMITTED) != committed)
+                {
+                    return;
+                }
+                try
+                {
+                    inTransaction(shard, false, call);
+                }
+                catch (Throwable e)
+                {
+                    log.error("Could not complete a write on shard {} after its transaction, it has to be fixed by hand", shard, e);
+                }
+            }
+        });
+    }
+
+    // splits the ids of the first argument by shard, the other arguments are the same for every shard
+    @SuppressWarnings("unchecked")
+    private Map<Integer, Object[]> argsByShardOfIds(Object[] args)
+    {
+        Map<Integer, List<Long>> idsByShard = new TreeMap<>();
+        for (Long id : (Iterable<Long>) args[0])
+        {
+            idsByShard.computeIfAbsent(userShards.shardOf(id), shard -> new ArrayList<>()).add(id);
+        }
+        Map<Integer, Object[]> argsByShard = new TreeMap<>();
+        for (Map.Entry<Integer, List<Long>> shardIds : idsByShard.entrySet())
+        {
+            Object[] shardArgs = args.clone();
+            shardArgs[0] = shardIds.getValue();
+            argsByShard.put(shardIds.getKey(), shardArgs);
+        }
+        return argsByShard;
+    }
+
+    private Map<Integer, Object[]> argsForEveryShard(Object[] args)
+    {
+        Map<Integer, Object[]> argsByShard = new TreeMap<>();
+        for (int shard = 0; shard < userShards.count(); shard++)
+        {
+            argsByShard.put(shard, args);
+        }
+        return argsByShard;
+    }
+
+    private List<Object> scatter(ProceedingJoinPoint joinPoint, Map<Integer, Object[]> argsByShard) throws Throwable
+    {
+        Map<Integer, ShardContext.ShardCall<Object>> calls = new TreeMap<>();
+        for (Map.Entry<Integer, Object[]> shardArgs : argsByShard.entrySet())
+        {
+            calls.put(shardArgs.getKey(), () -> joinPoint.proceed(shardArgs.getValue()));
+        }
+        return scatter(calls, isRead(joinPoint));
+    }
+
+    /*
+     * Runs the calls on their shards at once, each in a transaction of its own, and returns
+     * the results in the order of the shards. A single shard is called on the calling thread.
+     */
+    private List<Object> scatter(Map<Integer, ShardContext.ShardCall<Object>> calls, boolean readOnly) throws Throwable
+    {
+        if (calls.size() == 1)
+        {
+            Map.Entry<Integer, ShardContext.ShardCall<Object>> call = calls.entrySet().iterator().next();
+            return Collections.singletonList(inTransaction(call.getKey(), readOnly, call.getValue()));
+        }
+        List<CompletableFuture<Object>> results = new ArrayList<>(calls.size());
+        for (Map.Entry<Integer, ShardContext.ShardCall<Object>> call : calls.entrySet())
+        {
+            results.add(scatterExecutor.supplyAsync(() -> unchecked(() -> inTransaction(call.getKey(), readOnly, call.getValue()))));
+        }
+        List<Object> gathered = new ArrayList<>(results.size());
+        for (CompletableFuture<Object> result : results)
+        {
+            try
+            {
+                gathered.add(result.join());
+            }
+            catch (CompletionException e)
+            {
+                throw e.getCause() instanceof UndeclaredThrowableException ? e.getCause().getCause() : e.getCause();
+            }
+        }
+        return gathered;
+    }
+
+    private Object inTransaction(int shard, boolean readOnly, ShardContext.ShardCall<Object> call) throws Throwable
+    {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager.getObject(), newTransaction(readOnly));
+        return ShardContext.pinned(shard, () -> transactionTemplate.execute(status -> unchecked(call)));
+    }
+
+    private static DefaultTransactionDefinition newTransaction(boolean readOnly)
+    {
+        DefaultTransactionDefinition definition = new DefaultTransactionDefinition(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        definition.setReadOnly(readOnly);
+        return definition;
+    }
+
+    // repository methods throw no checked exceptions, anything else would be a bug
+    private static Object unchecked(ShardContext.ShardCall<Object> call)
+    {
+        try
+        {
+            return call.call();
+        }
+        catch (RuntimeException | Error e)
+        {
+            throw e;
+        }
+        catch (Throwable e)
+        {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+
+    // only used inside of a transaction on the shard, the statements go over its connection
+    private JdbcTemplate jdbcTemplate()
+    {
+        return new JdbcTemplate(dataSource.getObject());
+    }
+
+    private static boolean isRead(ProceedingJoinPoint joinPoint)
+    {
+        String method = joinPoint.getSignature().getName();
+        return method.startsWith("find") || method.startsWith("get") || method.startsWith("exists")
+                || method.startsWith("count") || method.startsWith("stream");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<UserSummary> mergePages(List<Object> pages, Comparator<UserSummary> order, Pageable pageable)
+    {
+        List<UserSummary> merged = new ArrayList<>();
+        for (Object page : pages)
+        {
+            merged.addAll((List<UserSummary>) page);
+        }
+        merged.sort(order);
+        // every shard returned its first rows after the cursor, the first rows of all of them are the page
+        return merged.size() > pageable.getPageSize() ? new ArrayList<>(merged.subList(0, pageable.getPageSize())) : merged;
+    }
+
+    private static List<Object> concat(List<Object> results)
+    {
+        List<Object> concatenated = new ArrayList<>();
+        for (Object result : results)
+        {
+            concatenated.addAll((List<?>) result);
+        }
+        return concatenated;
+    }
+
+    private static Long sum(List<Object> results)
+    {
+        long sum = 0;
+        for (Object result : results)
+        {
+            sum += ((Number) result).longValue();
+        }
+        return sum;
+    }
+
+    private static Object first(List<Object> results)
+    {
+        for (Object result : results)
+        {
+            if (result != null)
+            {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private Stream<Object> streamEveryShard(ProceedingJoinPoint joinPoint, Object[] args)
+    {
+        ShardStreams shardStreams = new ShardStreams(joinPoint, args);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(shardStreams, Spliterator.ORDERED), false)
+                .onClose(shardStreams::close);
+    }
+
+    // iterates the shards one after the other, a shard's stream and transaction are closed before the next is opened
+    private final class ShardStreams implements Iterator<Object>
+    {
+        private final ProceedingJoinPoint joinPoint;
+        private final Object[] args;
+        private int nextShard;
+        private TransactionStatus transaction;
+        private Stream<?> stream;
+        private Iterator<?> iterator;
+
+        ShardStreams(ProceedingJoinPoint joinPoint, Object[] args)
+        {
+            this.joinPoint = joinPoint;
+            this.args = args;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            while ((iterator == null || !iterator.hasNext()) && nextShard < userShards.count())
+            {
+                close();
+                open(nextShard++);
+            }
+            return iterator != null && iterator.hasNext();
+        }
+
+        @Override
+        public Object next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException();
+            }
+            return iterator.next();
+        }
+
+        private void open(int shard)
+        {
+            transaction = transactionManager.getObject().getTransaction(newTransaction(true));
+            try
+            {
+                stream = (Stream<?>) unchecked(() -> ShardContext.pinned(shard, () -> joinPoint.proceed(args)));
+                iterator = stream.iterator();
+            }
+            catch (RuntimeException | Error e)
+            {
+                transactionManager.getObject().rollback(transaction);
+                transaction = null;
+                throw e;
+            }
+        }
+
+        void close()
+        {
+            if (transaction == null)
+            {
+                return;
+            }
+            try
+            {
+                stream.close();
+            }
+            finally
+            {
+                TransactionStatus openTransaction = transaction;
+                transaction = null;
+                stream = null;
+                iterator = null;
+                transactionManager.getObject().commit(openTransaction);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package ch.uzh.ifi.hase.soprafs22.sharding;
+
+/**
+ * User Shards
+ * Placement of the users on the shards. A new user goes to the shard of its
+ * username hash, and its id is generated on that shard so that it carries the
+ * shard as well (see ShardAwareSequenceGenerator): the shard of an id is
+ * id % count, no lookup needed. Its token starts with the shard as well.
+ * A renamed user stays on the shard it was created on. Its username is
+ * claimed on the shard of the username hash (USERNAME_CLAIM), which points a
+ * username lookup to the id and keeps the username unique over all shards.
+ * The placement depends on the number of shards, adding a shard means moving
+ * users.
+ */
+public class UserShards
+{
+    private static final char TOKEN_SEPARATOR = '.';
+
+    private final int count;
+
+    public UserShards(int count)
+    {
+        if (count < 1)
+        {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.count = count;
+    }
+
+    public int count()
+    {
+        return count;
+    }
+
+    public int shardOf(long id)
+    {
+        return (int) Math.floorMod(id, (long) count);
+    }
+
+    // String.hashCode is fixed by the language spec, so the placement is the same on every JVM
+    public int shardOf(String username)
+    {
+        int hash = username.hashCode();
+        // spreads similar usernames (user1, user2, ...) over the shards
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        return Math.floorMod(hash, count);
+    }
+
+    // "<shard>.<token>", so the session lookup by token only asks the shard of the user
+    public String tokenOn(int shard, String token)
+    {
+        return shard + String.valueOf(TOKEN_SEPARATOR) + token;
+    }
+
+    // null for a token without a shard, e.g. one issued before the users were sharded
+    public Integer shardOfToken(String token)
+    {
+        int separator = token == null ? -1 : token.indexOf(TOKEN_SEPARATOR);
+        if (separator < 1)
+        {
+            return null;
+        }
+        try
+        {
+            int shard = Integer.parseInt(token.substring(0, separator));
+            return shard >= 0 && shard < count ? shard : null;
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    public static long idOf(long value, int shard, int count)
+    {
+        return value * count + shard;
+    }
+}
@@ -0,0 +1,131 @@
+package ch.uzh.ifi.hase.soprafs22.timing;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Records the time of the controller, DTOMapper, UserService and
+ * UserRepository calls of a timed request in its RequestTimings, and the
+ * commit of every transaction a repository call takes part in.
+ * It runs outside of the other advice of these beans (ORDER), a repository
+ * call is timed including its routing to a shard.
+ */
+@Aspect
+@Order(RequestTimingAspect.ORDER)
+public class RequestTimingAspect
+{
+    public static final int ORDER = Ordered.HIGHEST_PRECEDENCE + 100;
+
+    // marks a transaction whose commit is timed already
+    private static final Object COMMIT_TIMED = new Object();
+
+    @Around("within(@org.springframework.web.bind.annotation.RestController *)")
+    public Object timeController(ProceedingJoinPoint joinPoint) throws Throwable
+    {
+        RequestTimings timings = RequestTimings.current();
+        if (timings == null)
+        {
+            return joinPoint.proceed();
+        }
+        long start = System.nanoTime();
+        timings.controllerStarted(start);
+        try
+        {
+            return joinPoint.proceed();
+        }
+        finally
+        {
+            long end = System.nanoTime();
+            timings.record("controller", end - start);
+            timings.controllerFinished(end);
+        }
+    }
+
+    // only the mapper bean the UserController uses, calls through DTOMapper.INSTANCE are not timed
+    @Around("execution(public * ch.uzh.ifi.hase.soprafs22.rest.mapper.DTOMapper.*(..))")
+    public Object timeMapper(ProceedingJoinPoint joinPoint) throws Throwable
+    {
+        return time(joinPoint, "mapper");
+    }
+
+    @Around("execution(public * ch.uzh.ifi.hase.soprafs22.service.UserService.*(..))")
+    public Object timeService(ProceedingJoinPoint joinPoint) throws Throwable
+    {
+        return time(joinPoint, "service");
+    }
+
+    // this() also matches the methods UserRepository takes over from Spring Data, such as save and flush
+    @Around("this(ch.uzh.ifi.hase.soprafs22.repository.UserRepository)")
+    public Object timeRepository(ProceedingJoinPoint joinPoint) throws Throwable
+    {
+        RequestTimings timings = RequestTimings.current();
+        if (timings != null && TransactionSynchronizationManager.isSynchronizationActive()
+                && !TransactionSynchronizationManager.hasResource(COMMIT_TIMED))
+        {
+            TransactionSynchronizationManager.bindResource(COMMIT_TIMED, Boolean.TRUE);
+            TransactionSynchronizationManager.registerSynchronization(new CommitTiming(timings));
+        }
+        return time(joinPoint, "repo." + joinPoint.getSignature().getName());
+    }
+
+    private static Object time(ProceedingJoinPoint joinPoint, String phase) throws Throwable
+    {
+        RequestTimings timings = RequestTimings.current();
+        if (timings == null)
+        {
+            return joinPoint.proceed();
+        }
+        long start = System.nanoTime();
+        try
+        {
+            return joinPoint.proceed();
+        }
+        finally
+        {
+            timings.record(phase, System.nanoTime() - start);
+        }
+    }
+
+    // from the first beforeCommit callback to the first afterCommit callback, which covers the flush
+    private static final class CommitTiming implements TransactionSynchronization
+    {
+        private final RequestTimings timings;
+        private long start;
+
+        CommitTiming(RequestTimings timings)
+        {
+            this.timings = timings;
+        }
+
+        @Override
+        public int getOrder()
+        {
+            return Ordered.HIGHEST_PRECEDENCE;
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly)
+        {
+            start = System.nanoTime();
+        }
+
+        @Override
+        public void afterCommit()
+        {
+            if (start != 0)
+            {
+                timings.record("commit", System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status)
+        {
+            TransactionSynchronizationManager.unbindResourceIfPossible(COMMIT_TIMED);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package ch.uzh.ifi.hase.soprafs22.timing;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Request Timings
+ * Time spent by one request in each layer, collected on the request thread
+ * while ServerTimingFilter runs it:
+ * - binding: from the start of the request to the controller method (token
+ * check, reading and binding of the body)
+ * - controller, mapper, service: time in the controller methods, the
+ * DTOMapper and the UserService
+ * - repo.<method>: every UserRepository method, summed up per method
+ * - commit: flush and commit of the transactions
+ * - write: from the end of the controller method to the end of the request
+ * (serialization of the response)
+ * The layers nest, the controller time includes the service time and so on.
+ * Outside of a timed request (timing disabled, tests, background threads)
+ * nothing is recorded.
+ */
+public final class RequestTimings
+{
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<>();
+
+    private final long start = System.nanoTime();
+    // phase -> {total nanoseconds, count}, in the order the phases first occurred
+    private final Map<String, long[]> phases = new LinkedHashMap<>();
+    private long controllerEnd;
+    private long end;
+
+    private RequestTimings()
+    {
+    }
+
+    static RequestTimings begin()
+    {
+        RequestTimings timings = new RequestTimings();
+        CURRENT.set(timings);
+        return timings;
+    }
+
+    // ends the request on this thread
+    void end()
+    {
+        end = System.nanoTime();
+        CURRENT.remove();
+        if (controllerEnd != 0)
+        {
+            record("write", end - controllerEnd);
+        }
+    }
+
+    public static RequestTimings current()
+    {
+        return CURRENT.get();
+    }
+
+    public void record(String phase, long nanos)
+    {
+        long[] totals = phases.computeIfAbsent(phase, name -> new long[2]);
+        totals[0] += nanos;
+        totals[1]++;
+    }
+
+    void controllerStarted(long nanos)
+    {
+        if (!phases.containsKey("binding"))
+        {
+            record("binding", nanos - start);
+        }
+    }
+
+    void controllerFinished(long nanos)
+    {
+        controllerEnd = nanos;
+    }
+
+    public long getTotalNanos()
+    {
+        return (end == 0 ? System.nanoTime() : end) - start;
+    }
+
+    // phase -> milliseconds
+    public Map<String, Double> getPhaseMillis()
+    {
+        Map<String, Double> millis = new LinkedHashMap<>();
+        for (Map.Entry<String, long[]> phase : phases.entrySet())
+        {
+            millis.put(phase.getKey(), phase.getValue()[0] / 1e6);
+        }
+        return millis;
+    }
+
+    // e.g. total;dur=4.21, binding;dur=0.35, controller;dur=3.10, repo.findUserById;dur=0.42;desc="2 calls"
+    public String toServerTiming()
+    {
+        StringBuilder header = new StringBuilder(String.format(Locale.ROOT, "total;dur=%.2f", getTotalNanos() / 1e6));
+        for (Map.Entry<String, long[]> phase : phases.entrySet())
+        {
+            header.append(String.format(Locale.ROOT, ", %s;dur=%.2f", phase.getKey(), phase.getValue()[0] / 1e6));
+            if (phase.getValue()[1] > 1)
+            {
+                header.append(";desc=\"").append(phase.getValue()[1]).append(" calls\"");
+            }
+        }
+        return header.toString();
+    }
+}
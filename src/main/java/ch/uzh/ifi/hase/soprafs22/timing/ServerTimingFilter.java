@@ -0,0 +1,115 @@
+package ch.uzh.ifi.hase.soprafs22.timing;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Server Timing Filter
+ * Times every request in RequestTimings, offers it to the SlowRequestLog and,
+ * if enabled, sends the timings in a Server-Timing header. As the header has
+ * to go out before the body, the body is then held back until the request
+ * is done. Streamed responses (StreamingResponseBody, ResponseBodyEmitter),
+ * which their handlers mark with markStreaming, are never held back: they get
+ * the header with the timings up to the start of the stream and the body
+ * passes straight through.
+ */
+public class ServerTimingFilter extends OncePerRequestFilter
+{
+    public static final String SERVER_TIMING_HEADER = "Server-Timing";
+    public static final String STREAMING_ATTRIBUTE = ServerTimingFilter.class.getName() + ".STREAMING";
+
+    private final SlowRequestLog slowRequestLog;
+    private final boolean serverTimingHeader;
+
+    public ServerTimingFilter(SlowRequestLog slowRequestLog, boolean serverTimingHeader)
+    {
+        this.slowRequestLog = slowRequestLog;
+        this.serverTimingHeader = serverTimingHeader;
+    }
+
+    // to be called by a handler that streams its body, before it returns
+    public static void markStreaming(HttpServletRequest request)
+    {
+        request.setAttribute(STREAMING_ATTRIBUTE, Boolean.TRUE);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException
+    {
+        RequestTimings timings = RequestTimings.begin();
+        TimedResponse timedResponse = serverTimingHeader ? new TimedResponse(request, response, timings) : null;
+        try
+        {
+            filterChain.doFilter(request, timedResponse != null ? timedResponse : response);
+        }
+        finally
+        {
+            timings.end();
+            if (timedResponse != null && !timedResponse.streaming)
+            {
+                timedResponse.setHeader(SERVER_TIMING_HEADER, timings.toServerTiming());
+                timedResponse.copyBodyToResponse();
+            }
+            slowRequestLog.offer(request.getMethod(), request.getRequestURI(), response.getStatus(), timings);
+        }
+    }
+
+    // holds the body back until the request is done, unless the handler streams it
+    private static final class TimedResponse extends ContentCachingResponseWrapper
+    {
+        private final HttpServletRequest request;
+        private final RequestTimings timings;
+        private boolean streaming;
+
+        TimedResponse(HttpServletRequest request, HttpServletResponse response, RequestTimings timings)
+        {
+            super(response);
+            this.request = request;
+            this.timings = timings;
+        }
+
+        // the stream is asked for on the request thread before the request goes async, so isAsyncStarted is no sign yet
+        private boolean isStreaming() throws IOException
+        {
+            if (!streaming && request.getAttribute(STREAMING_ATTRIBUTE) != null)
+            {
+                setHeader(SERVER_TIMING_HEADER, timings.toServerTiming());
+                copyBodyToResponse(false);
+                streaming = true;
+            }
+            return streaming;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException
+        {
+            return isStreaming() ? getResponse().getOutputStream() : super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException
+        {
+            return isStreaming() ? getResponse().getWriter() : super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException
+        {
+            if (isStreaming())
+            {
+                getResponse().flushBuffer();
+            }
+            else
+            {
+                super.flushBuffer();
+            }
+        }
+    }
+}
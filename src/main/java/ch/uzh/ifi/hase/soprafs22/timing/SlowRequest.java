@@ -0,0 +1,36 @@
+package ch.uzh.ifi.hase.soprafs22.timing;
+import java.time.Instant;
+import java.util.Map;
+
+// one request that took longer than the threshold of the SlowRequestLog
+public class SlowRequest
+{
+    private final Instant time;
+    private final String method;
+    private final String uri;
+    private final int status;
+    private final double totalMillis;
+    private final Map<String, Double> phaseMillis;
+
+    public SlowRequest(Instant time, String method, String uri, int status, double totalMillis, Map<String, Double> phaseMillis)
+    {
+        this.time = time;
+        this.method = method;
+        this.uri = uri;
+        this.status = status;
+        this.totalMillis = totalMillis;
+        this.phaseMillis = phaseMillis;
+    }
+
+    public Instant getTime() {return time;}
+
+    public String getMethod() {return method;}
+
+    public String getUri() {return uri;}
+
+    public int getStatus() {return status;}
+
+    public double getTotalMillis() {return totalMillis;}
+
+    public Map<String, Double> getPhaseMillis() {return phaseMillis;}
+}
@@ -0,0 +1,62 @@
+package ch.uzh.ifi.hase.soprafs22.timing;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Slow Request Log
+ * Ring buffer of the last requests that took at least the threshold, with
+ * the timings of their layers. Once it is full every new slow request
+ * replaces the oldest one. Served on /actuator/slowrequests.
+ */
+public class SlowRequestLog
+{
+    private final long thresholdNanos;
+    private final SlowRequest[] requests;
+    private int next;
+    private long count;
+
+    public SlowRequestLog(long thresholdMillis, int size)
+    {
+        this.thresholdNanos = thresholdMillis * 1_000_000;
+        this.requests = new SlowRequest[size];
+    }
+
+    public void offer(String method, String uri, int status, RequestTimings timings)
+    {
+        long totalNanos = timings.getTotalNanos();
+        if (totalNanos < thresholdNanos || requests.length == 0)
+        {
+            return;
+        }
+        SlowRequest request = new SlowRequest(Instant.now(), method, uri, status, totalNanos / 1e6, timings.getPhaseMillis());
+        synchronized (this)
+        {
+            requests[next] = request;
+            next = (next + 1) % requests.length;
+            count++;
+        }
+    }
+
+    // newest first
+    public synchronized List<SlowRequest> getRequests()
+    {
+        List<SlowRequest> newestFirst = new ArrayList<>(requests.length);
+        for (int i = 1; i <= requests.length; i++)
+        {
+            SlowRequest request = requests[(next - i + requests.length) % requests.length];
+            if (request == null)
+            {
+                break;
+            }
+            newestFirst.add(request);
+        }
+        return newestFirst;
+    }
+
+    // slow requests seen since the start, including those that were replaced already
+    public synchronized long getCount()
+    {
+        return count;
+    }
+}
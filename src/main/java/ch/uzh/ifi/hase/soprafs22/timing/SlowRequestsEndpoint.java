@@ -0,0 +1,26 @@
+package ch.uzh.ifi.hase.soprafs22.timing;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// GET /actuator/slowrequests: the requests of the SlowRequestLog, newest first
+@Endpoint(id = "slowrequests")
+public class SlowRequestsEndpoint
+{
+    private final SlowRequestLog slowRequestLog;
+
+    public SlowRequestsEndpoint(SlowRequestLog slowRequestLog)
+    {
+        this.slowRequestLog = slowRequestLog;
+    }
+
+    @ReadOperation
+    public Map<String, Object> slowRequests()
+    {
+        Map<String, Object> slowRequests = new LinkedHashMap<>();
+        slowRequests.put("count", slowRequestLog.getCount());
+        slowRequests.put("requests", slowRequestLog.getRequests());
+        return slowRequests;
+    }
+}
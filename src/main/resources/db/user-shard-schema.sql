@@ -0,0 +1,30 @@
+-- Schema of one user shard (ShardingConfig), the same as Hibernate creates for the User entity.
+-- The naming strategy of Spring Boot lower-cases the quoted table name of User, so the table is "user".
+-- The ids of a shard are USER_SEQ values times the number of shards plus the shard (ShardAwareSequenceGenerator).
+create sequence if not exists USER_SEQ start with 1 increment by 50;
+
+create table if not exists "user" (
+    id bigint not null,
+    birthday timestamp,
+    creation_date timestamp not null,
+    logged_in boolean not null,
+    name varchar(255) not null,
+    password varchar(255) not null,
+    status integer not null,
+    token varchar(255) not null,
+    username varchar(255) not null,
+    version bigint not null,
+    primary key (id),
+    constraint UK_USER_TOKEN unique (token),
+    constraint UK_USER_USERNAME unique (username)
+);
+
+create index if not exists IDX_USER_CREATION_DATE_ID on "user" (creation_date, id);
+
+-- Every username is claimed on the shard of its hash, also once a rename left it on another shard than its user
+-- (ShardingRepositoryAspect). The primary key keeps a username unique over all shards.
+create table if not exists USERNAME_CLAIM (
+    username varchar(255) not null,
+    user_id bigint not null,
+    primary key (username)
+);
@@ -0,0 +1,93 @@
+package ch.uzh.ifi.hase.soprafs22.config;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:cache",
+    "users.password.iterations=1000"})
+public class HibernateCacheConfigTest {
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private EntityManagerFactory entityManagerFactory;
+
+  private Statistics statistics;
+
+  @BeforeEach
+  public void setup() {
+    statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+  }
+
+  @Test
+  public void lookups_servedFromCache() {
+    User user = userService.createUser(newUser("cached"));
+
+    userRepository.findUserById(user.getId());
+    userRepository.findByUsername("cached");
+    statistics.clear();
+
+    assertEquals("cached", userRepository.findUserById(user.getId()).getUsername());
+    assertEquals(user.getId(), userRepository.findByUsername("cached").getId());
+
+    assertEquals(2, statistics.getQueryCacheHitCount());
+    assertEquals(2, statistics.getDomainDataRegionStatistics(HibernateCacheConfig.USER_REGION).getHitCount());
+  }
+
+  @Test
+  public void update_invalidatesCachedLookups() {
+    User user = userService.createUser(newUser("before"));
+    assertNotNull(userRepository.findByUsername("before"));
+    assertEquals("before", userRepository.findUserById(user.getId()).getUsername());
+
+    User update = new User();
+    update.setUsername("after");
+    userService.updateUser(user.getId(), update);
+
+    assertNull(userRepository.findByUsername("before"));
+    assertEquals(user.getId(), userRepository.findByUsername("after").getId());
+    assertEquals("after", userRepository.findUserById(user.getId()).getUsername());
+  }
+
+  @Test
+  public void presenceUpdate_evictsOnlyChangedUsers() {
+    User changed = userService.createUser(newUser("changed"));
+    User untouched = userService.createUser(newUser("untouched"));
+    userRepository.findUserById(changed.getId());
+    userRepository.findUserById(untouched.getId());
+
+    userRepository.updatePresence(Collections.singletonList(changed.getId()), UserStatus.OFFLINE, false);
+
+    assertFalse(entityManagerFactory.getCache().contains(User.class, changed.getId()));
+    assertTrue(entityManagerFactory.getCache().contains(User.class, untouched.getId()));
+    assertEquals(UserStatus.OFFLINE, userRepository.findUserById(changed.getId()).getStatus());
+  }
+
+  private static User newUser(String username) {
+    User user = new User();
+    user.setName("testName");
+    user.setUsername(username);
+    user.setPassword("password");
+    return user;
+  }
+}
@@ -0,0 +1,103 @@
+package ch.uzh.ifi.hase.soprafs22.config;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserSortOrder;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.entity.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// primary and replica are two databases, a user that only exists in one of them shows where a read went
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:routing-primary",
+    "users.datasource.replica.url=jdbc:h2:mem:routing-replica;INIT=RUNSCRIPT FROM 'classpath:db/user-shard-schema.sql'",
+    "users.datasource.replica.max-lag-ms=60000",
+    "users.password.iterations=1000"})
+@ActiveProfiles("replica")
+public class ReadWriteRoutingConfigTest {
+
+  @Autowired
+  private DataSource dataSource;
+
+  @Autowired
+  private UserService userService;
+
+  @Qualifier("replicaDataSource")
+  @Autowired
+  private DataSource replicaDataSource;
+
+  @BeforeEach
+  public void setup() {
+    // the replica has not caught up with anything the tests write to the primary
+    new JdbcTemplate(replicaDataSource).update(
+        "insert into \"user\" (id, creation_date, logged_in, name, password, status, token, username, version) values (?, ?, ?, ?, ?, ?, ?, ?, ?)",
+        1000000L, new Timestamp(System.currentTimeMillis()), false, "Replica Only", "password", 1, "replica-token", "replicaonly", 0L);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    RequestContextHolder.resetRequestAttributes();
+    new JdbcTemplate(replicaDataSource).update("delete from \"user\"");
+  }
+
+  @Test
+  public void readOnlyTransactions_replica_writingSession_primary() {
+    assertTrue(dataSource instanceof LazyConnectionDataSourceProxy);
+    assertEquals(List.of("replicaonly"), listedUsernames());
+
+    inRequestFrom("10.0.0.1");
+    userService.createUser(newUser("routing"));
+    // the writing client reads its own write from the primary
+    assertEquals(List.of("routing"), listedUsernames());
+
+    // any other client still reads from the replica
+    inRequestFrom("10.0.0.2");
+    assertEquals(List.of("replicaonly"), listedUsernames());
+  }
+
+  @Test
+  public void readWriteTransactionWithoutWrite_replicaStillUsed() {
+    User user = userService.createUser(newUser("reader"));
+
+    inRequestFrom("10.0.0.3");
+    // not read-only, but it writes nothing
+    assertEquals("reader", userService.getUserById(user.getId()).getUsername());
+
+    assertEquals(List.of("replicaonly"), listedUsernames());
+  }
+
+  private List<String> listedUsernames() {
+    return userService.getUsers(UserSortOrder.ID, null, 10).stream().map(UserSummary::getUsername).collect(Collectors.toList());
+  }
+
+  private static void inRequestFrom(String address) {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.setRemoteAddr(address);
+    RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+  }
+
+  private static User newUser(String username) {
+    User user = new User();
+    user.setName("Firstname Lastname");
+    user.setUsername(username);
+    user.setPassword("password");
+    return user;
+  }
+}
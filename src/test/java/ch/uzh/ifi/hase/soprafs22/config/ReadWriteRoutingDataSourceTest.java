@@ -0,0 +1,125 @@
+package ch.uzh.ifi.hase.soprafs22.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.Collection;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReadWriteRoutingDataSourceTest {
+
+  private DataSource primary;
+  private DataSource replica;
+  private Connection primaryConnection;
+  private Connection replicaConnection;
+  private MeterRegistry meterRegistry;
+  private Collection<String> sessions = Collections.singletonList("token:a");
+
+  @BeforeEach
+  public void setup() throws Exception {
+    primary = Mockito.mock(DataSource.class);
+    replica = Mockito.mock(DataSource.class);
+    primaryConnection = Mockito.mock(Connection.class);
+    replicaConnection = Mockito.mock(Connection.class);
+    Mockito.when(primary.getConnection()).thenReturn(primaryConnection);
+    Mockito.when(replica.getConnection()).thenReturn(replicaConnection);
+    meterRegistry = new SimpleMeterRegistry();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+    TransactionSynchronizationManager.setActualTransactionActive(false);
+  }
+
+  @Test
+  public void getConnection_readOnlyTransaction_replica() throws Exception {
+    ReadWriteRoutingDataSource dataSource = routingDataSource(0);
+
+    assertSame(primaryConnection, dataSource.getConnection());
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+    assertSame(replicaConnection, dataSource.getConnection());
+
+    assertEquals(1.0, routed("primary", "read_write"));
+    assertEquals(1.0, routed("replica", "read_only"));
+  }
+
+  @Test
+  public void getConnection_readOnlyAfterWrite_primaryForWritingSession() throws Exception {
+    ReadWriteRoutingDataSource dataSource = routingDataSource(60000);
+
+    // nothing was written yet, the replica cannot be behind
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+    assertSame(replicaConnection, dataSource.getConnection());
+
+    // a write transaction of session a commits
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+    commit(dataSource, true);
+
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+    assertSame(primaryConnection, dataSource.getConnection());
+    assertEquals(1.0, routed("primary", "replica_lag"));
+
+    // another session still reads from the replica
+    sessions = Collections.singletonList("token:b");
+    assertSame(replicaConnection, dataSource.getConnection());
+  }
+
+  @Test
+  public void getConnection_readOnlyAfterReadWriteTransactionWithoutWrite_replica() throws Exception {
+    ReadWriteRoutingDataSource dataSource = routingDataSource(60000);
+
+    commit(dataSource, false);
+
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+    assertSame(replicaConnection, dataSource.getConnection());
+    assertEquals(0.0, routed("primary", "replica_lag"));
+  }
+
+  @Test
+  public void isWrite_dataChangingStatements() {
+    assertTrue(WriteDetectingStatementInspector.isWrite("insert into \"USER\" (name) values (?)"));
+    assertTrue(WriteDetectingStatementInspector.isWrite("/* update presence */ UPDATE \"USER\" set status=?"));
+    assertTrue(WriteDetectingStatementInspector.isWrite("  delete from \"USER\" where id=?"));
+    assertFalse(WriteDetectingStatementInspector.isWrite("select u.id from \"USER\" u"));
+    assertFalse(WriteDetectingStatementInspector.isWrite("call next value for USER_SEQ"));
+  }
+
+  // a read-write transaction that requests a connection and, if it wrote, executes a statement changing data
+  private void commit(ReadWriteRoutingDataSource dataSource, boolean write) throws Exception {
+    TransactionSynchronizationManager.initSynchronization();
+    TransactionSynchronizationManager.setActualTransactionActive(true);
+    assertSame(primaryConnection, dataSource.getConnection());
+    if (write) {
+      new WriteDetectingStatementInspector(dataSource).inspect("update \"USER\" set name=? where id=?");
+    }
+    TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+    TransactionSynchronizationManager.getSynchronizations().forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+    TransactionSynchronizationManager.clearSynchronization();
+    TransactionSynchronizationManager.setActualTransactionActive(false);
+  }
+
+  private ReadWriteRoutingDataSource routingDataSource(long maxLagMillis) {
+    ReadWriteRoutingDataSource dataSource = new ReadWriteRoutingDataSource(primary, replica, maxLagMillis, () -> sessions);
+    dataSource.bindTo(meterRegistry);
+    dataSource.afterPropertiesSet();
+    return dataSource;
+  }
+
+  private double routed(String target, String reason) {
+    return meterRegistry.get("users.datasource.routing").tag("target", target).tag("reason", reason).functionCounter().count();
+  }
+}
@@ -0,0 +1,32 @@
+package ch.uzh.ifi.hase.soprafs22.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.embedded.tomcat.TomcatWebServer;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = "users.execution.virtual-threads=true")
+public class VirtualThreadConfigTest {
+
+  @Autowired
+  private ServletWebServerApplicationContext context;
+
+  @Test
+  public void virtualThreads_enabled_tomcatRunsRequestsOnVirtualThreads() throws Exception {
+    TomcatWebServer webServer = (TomcatWebServer) context.getWebServer();
+    Executor executor = webServer.getTomcat().getConnector().getProtocolHandler().getExecutor();
+
+    CompletableFuture<Boolean> virtual = new CompletableFuture<>();
+    executor.execute(() -> virtual.complete(Thread.currentThread().isVirtual()));
+
+    assertTrue(virtual.get(5, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,106 @@
+package ch.uzh.ifi.hase.soprafs22.controller;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserTokenDTO;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the reactive stack on Netty against its own in-memory database and
+ * checks that it keeps the contract of the servlet UserController.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+    "spring.datasource.url=jdbc:h2:mem:reactivetest",
+    "spring.r2dbc.url=r2dbc:h2:mem:///reactivetest",
+    "users.password.iterations=1000"})
+@ActiveProfiles("reactive")
+public class ReactiveUserControllerTest {
+
+  @Autowired
+  private WebTestClient webTestClient;
+
+  @Test
+  public void createLoginLogout_keepsServletContract() {
+    UserTokenDTO created = createUser("reactive", "password");
+    assertNotNull(created.getId());
+    assertNotNull(created.getToken());
+    assertEquals(UserStatus.ONLINE, created.getStatus());
+
+    webTestClient.post().uri("/users").bodyValue(userPostDTO("reactive", "other"))
+        .exchange().expectStatus().isEqualTo(409);
+
+    webTestClient.post().uri("/users/login").bodyValue(userPostDTO("reactive", "wrong"))
+        .exchange().expectStatus().isUnauthorized();
+    UserGetDTO loggedIn = webTestClient.post().uri("/users/login").bodyValue(userPostDTO("reactive", "password"))
+        .exchange().expectStatus().isAccepted()
+        .expectBody(UserGetDTO.class).returnResult().getResponseBody();
+    assertEquals(created.getId(), loggedIn.getId());
+
+    webTestClient.put().uri("/users/logout/{id}", created.getId())
+        .exchange().expectStatus().isUnauthorized();
+    webTestClient.put().uri("/users/logout/{id}", created.getId() + 1)
+        .header(HttpHeaders.AUTHORIZATION, "Bearer " + created.getToken())
+        .exchange().expectStatus().isForbidden();
+    webTestClient.put().uri("/users/logout/{id}", created.getId())
+        .header(HttpHeaders.AUTHORIZATION, "Bearer " + created.getToken())
+        .exchange().expectStatus().isOk()
+        .expectBody().jsonPath("$.status").isEqualTo("OFFLINE");
+
+    webTestClient.get().uri("/users/{id}", created.getId())
+        .exchange().expectStatus().isOk()
+        .expectBody().jsonPath("$.username").isEqualTo("reactive").jsonPath("$.status").isEqualTo("OFFLINE");
+    webTestClient.get().uri("/users/{id}", 999999)
+        .exchange().expectStatus().isNotFound();
+  }
+
+  @Test
+  public void getAllUsers_pagesWithCursor_exportStreamsAll() {
+    createUser("page-a", "password");
+    createUser("page-b", "password");
+    createUser("page-c", "password");
+
+    String cursor = webTestClient.get().uri("/users?sort_by=username&limit=2")
+        .exchange().expectStatus().isOk()
+        .expectHeader().exists(UserController.NEXT_CURSOR_HEADER)
+        .returnResult(UserGetDTO.class).getResponseHeaders().getFirst(UserController.NEXT_CURSOR_HEADER);
+
+    List<UserGetDTO> nextPage = webTestClient.get().uri("/users?sort_by=username&limit=2&after=" + cursor)
+        .exchange().expectStatus().isOk()
+        .expectBodyList(UserGetDTO.class).returnResult().getResponseBody();
+    assertFalse(nextPage.isEmpty());
+    assertTrue(nextPage.get(0).getUsername().compareTo("page-b") > 0);
+
+    webTestClient.get().uri("/users?sort_by=password").exchange().expectStatus().isBadRequest();
+
+    List<UserGetDTO> exported = webTestClient.get().uri("/users/export")
+        .accept(MediaType.parseMediaType(UserController.NDJSON_VALUE))
+        .exchange().expectStatus().isOk()
+        .returnResult(UserGetDTO.class).getResponseBody().collectList().block();
+    assertTrue(exported.stream().anyMatch(user -> "page-c".equals(user.getUsername())));
+  }
+
+  private UserTokenDTO createUser(String username, String password) {
+    return webTestClient.post().uri("/users").bodyValue(userPostDTO(username, password))
+        .exchange().expectStatus().isCreated()
+        .expectBody(UserTokenDTO.class).returnResult().getResponseBody();
+  }
+
+  private static UserPostDTO userPostDTO(String username, String password) {
+    UserPostDTO userPostDTO = new UserPostDTO();
+    userPostDTO.setName("Name of " + username);
+    userPostDTO.setUsername(username);
+    userPostDTO.setPassword(password);
+    return userPostDTO;
+  }
+}
@@ -1,32 +1,66 @@
 package ch.uzh.ifi.hase.soprafs22.controller;
+import ch.uzh.ifi.hase.soprafs22.constant.UserSortOrder;
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.entity.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.exceptions.AuthenticationFailureException;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPostDTO;
 import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPutDTO;
+import ch.uzh.ifi.hase.soprafs22.rest.mapper.DTOMapperImpl;
+import ch.uzh.ifi.hase.soprafs22.security.SessionCache;
+import ch.uzh.ifi.hase.soprafs22.service.PresenceRegistry;
+import ch.uzh.ifi.hase.soprafs22.service.UserChangeCounter;
+import ch.uzh.ifi.hase.soprafs22.service.UserCreationResult;
+import ch.uzh.ifi.hase.soprafs22.service.UserJsonCache;
+import ch.uzh.ifi.hase.soprafs22.service.UserPatch;
 import ch.uzh.ifi.hase.soprafs22.service.UserService;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.web.server.ResponseStatusException;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.doNothing;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 /**
  * UserControllerTest
@@ -35,6 +69,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
  * This tests if the UserController works.
  */
 @WebMvcTest(UserController.class)
+@Import(DTOMapperImpl.class)
 public class UserControllerTest {
 
   @Autowired
@@ -43,6 +78,18 @@ public class UserControllerTest {
   @MockBean
   private UserService userService;
 
+  @MockBean
+  private SessionCache sessionCache;
+
+  @MockBean
+  private PresenceRegistry presenceRegistry;
+
+  @MockBean
+  private UserChangeCounter userChangeCounter;
+
+  @MockBean
+  private UserJsonCache userJsonCache;
+
   @Test
   public void givenUsers_whenGetUsers_thenReturnJsonArray() throws Exception {
     // given
@@ -51,11 +98,11 @@ public class UserControllerTest {
     user.setUsername("firstname@lastname");
     user.setStatus(UserStatus.OFFLINE);
 
-    List<User> allUsers = Collections.singletonList(user);
+    List<UserSummary> allUsers = Collections.singletonList(UserSummary.of(user));
 
     // this mocks the UserService -> we define above what the userService should
     // return when getUsers() is called
-    given(userService.getUsers()).willReturn(allUsers);
+    given(userService.getUsers(UserSortOrder.ID, null, null)).willReturn(allUsers);
 
     // when
     MockHttpServletRequestBuilder getRequest = get("/users").contentType(MediaType.APPLICATION_JSON);
@@ -68,6 +115,74 @@ public class UserControllerTest {
         .andExpect(jsonPath("$[0].status", is(user.getStatus().toString())));
   }
 
+  @Test
+  public void givenFullPage_whenGetUsers_thenReturnNextCursor() throws Exception {
+    // given
+    User user = new User();
+    user.setId(7L);
+    user.setName("Firstname Lastname");
+    user.setUsername("firstname@lastname");
+    user.setStatus(UserStatus.OFFLINE);
+
+    given(userService.getUsers(UserSortOrder.USERNAME, null, 1)).willReturn(Collections.singletonList(UserSummary.of(user)));
+
+    // when
+    MockHttpServletRequestBuilder getRequest = get("/users?sort_by=username&limit=1").contentType(MediaType.APPLICATION_JSON);
+
+    // then
+    mockMvc.perform(getRequest).andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(1)))
+        .andExpect(header().string(UserController.NEXT_CURSOR_HEADER, notNullValue()));
+  }
+
+  @Test
+  public void givenUnknownSortOrder_whenGetUsers_thenBadRequest() throws Exception {
+    MockHttpServletRequestBuilder getRequest = get("/users?sort_by=password").contentType(MediaType.APPLICATION_JSON);
+
+    mockMvc.perform(getRequest).andExpect(status().isBadRequest());
+  }
+
+  @Test
+  public void givenOnlineUsers_whenGetOnlineUsers_thenReturnIds() throws Exception {
+    given(userService.getOnlineUserIds()).willReturn(Arrays.asList(1L, 4L));
+
+    mockMvc.perform(get("/users/online")).andExpect(status().isOk())
+        .andExpect(jsonPath("$", hasSize(2)))
+        .andExpect(jsonPath("$[1]", is(4)));
+  }
+
+  @Test
+  public void givenUsers_whenExportUsers_thenStreamOneJsonObjectPerLine() throws Exception {
+    // given
+    User first = new User();
+    first.setId(1L);
+    first.setUsername("first");
+    first.setStatus(UserStatus.OFFLINE);
+    User second = new User();
+    second.setId(2L);
+    second.setUsername("second");
+    second.setStatus(UserStatus.ONLINE);
+
+    Mockito.doAnswer(invocation -> {
+      Consumer<User> consumer = invocation.getArgument(0);
+      consumer.accept(first);
+      consumer.accept(second);
+      return null;
+    }).when(userService).exportUsers(Mockito.any());
+
+    // when
+    MvcResult result = mockMvc.perform(get("/users/export")).andExpect(request().asyncStarted()).andReturn();
+
+    // then
+    String body = mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk())
+        .andExpect(content().contentType(UserController.NDJSON_VALUE))
+        .andReturn().getResponse().getContentAsString();
+    String[] lines = body.split("\n");
+    assertEquals(2, lines.length);
+    assertTrue(lines[0].contains("\"username\":\"first\""));
+    assertTrue(lines[1].contains("\"username\":\"second\""));
+  }
+
     // Status Code 201 add User
     @Test
     public void createUser_validInput_userCreated() throws Exception
@@ -142,6 +257,42 @@ public class UserControllerTest {
 
     }
 
+    // Status Code 200 batch creation with one created and one conflicting user
+    @Test
+    public void createUsers_batch_reportsEveryUser() throws Exception
+    {
+        // given
+        User created = new User();
+        created.setId(1L);
+        created.setUsername("new");
+        created.setStatus(UserStatus.ONLINE);
+        User conflicting = new User();
+        conflicting.setUsername("taken");
+
+        UserPostDTO first = new UserPostDTO();
+        first.setUsername("new");
+        UserPostDTO second = new UserPostDTO();
+        second.setUsername("taken");
+
+        given(userService.createUsers(Mockito.any())).willReturn(Arrays.asList(UserCreationResult.created(created),
+                UserCreationResult.rejected(HttpStatus.CONFLICT, conflicting, "The username provided is not unique")));
+
+        // when
+        MockHttpServletRequestBuilder postRequest = post("/users/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(Arrays.asList(first, second)));
+
+        // then
+        mockMvc.perform(postRequest)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].status", is(201)))
+                .andExpect(jsonPath("$[0].user.id", is(1)))
+                .andExpect(jsonPath("$[1].index", is(1)))
+                .andExpect(jsonPath("$[1].status", is(409)))
+                .andExpect(jsonPath("$[1].username", is("taken")));
+    }
+
     // Status Code 201 add User
     @Test
     public void givenUser_validLogIn() throws Exception {
@@ -179,7 +330,7 @@ public class UserControllerTest {
         user.setStatus(UserStatus.OFFLINE);
         user.setId(1L);
 
-        given(userService.getUserById(1L)).willReturn(user);
+        given(userService.getUserSummary(1L)).willReturn(UserSummary.of(user));
 
         MockHttpServletRequestBuilder getRequest = get("/users/1").contentType(MediaType.APPLICATION_JSON);
 
@@ -190,10 +341,219 @@ public class UserControllerTest {
                 .andExpect(jsonPath("$.status", is(user.getStatus().toString())));
     }
 
+    // 200 status code user profile as CBOR, not served from the JSON cache
+    @Test
+    public void getUser_acceptCbor_binaryBody() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setName("test User");
+        user.setUsername("testUsername");
+        user.setStatus(UserStatus.OFFLINE);
+        user.setVersion(3L);
+        given(userService.getUserSummary(1L)).willReturn(UserSummary.of(user));
+
+        MvcResult result = mockMvc.perform(get("/users/1").accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_CBOR))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1-3-offline-cbor\""))
+                .andReturn();
+
+        UserGetDTO userGetDTO = new ObjectMapper(new CBORFactory()).readValue(result.getResponse().getContentAsByteArray(), UserGetDTO.class);
+        assertEquals(user.getUsername(), userGetDTO.getUsername());
+        Mockito.verify(userJsonCache, Mockito.never()).get(Mockito.any());
+    }
+
+    @Test
+    public void userMediaType_followsQualityOfMostSpecificRange() throws Exception {
+        assertEquals(MediaType.APPLICATION_JSON, UserController.userMediaType(null));
+        assertEquals(MediaType.APPLICATION_JSON, UserController.userMediaType("*/*"));
+        assertEquals(MediaType.APPLICATION_JSON, UserController.userMediaType("application/*"));
+        assertEquals(MediaType.APPLICATION_JSON, UserController.userMediaType("application/json, application/cbor;q=0.5"));
+        assertEquals(MediaType.APPLICATION_CBOR, UserController.userMediaType("application/cbor, application/json;q=0.5"));
+        assertEquals(UserController.SMILE, UserController.userMediaType("application/x-jackson-smile"));
+        // the quality decides, not the specificity of the range
+        assertEquals(MediaType.APPLICATION_JSON, UserController.userMediaType("application/cbor;q=0.1, application/*"));
+        // a more specific range overrides the quality of a wildcard
+        assertEquals(UserController.SMILE, UserController.userMediaType("application/json;q=0, application/cbor;q=0, */*"));
+        assertThrows(HttpMediaTypeNotAcceptableException.class, () -> UserController.userMediaType("text/html"));
+    }
+
+    // 406 status code user profile in a format the API does not speak
+    @Test
+    public void getUser_acceptUnsupportedType_notAcceptable() throws Exception {
+        mockMvc.perform(get("/users/1").accept(MediaType.TEXT_HTML))
+                .andExpect(status().isNotAcceptable());
+
+        Mockito.verify(userService, Mockito.never()).getUserSummary(Mockito.any());
+    }
+
+    // Status Code 201 add User with a Smile body
+    @Test
+    public void createUser_smileBody_userCreated() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("testUsername");
+        user.setToken("1");
+        given(userService.createUser(Mockito.any())).willReturn(user);
+
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setName("Test User");
+        userPostDTO.setUsername("testUsername");
+
+        mockMvc.perform(post("/users")
+                        .contentType(UserController.SMILE)
+                        .accept(UserController.SMILE)
+                        .content(new ObjectMapper(new SmileFactory()).writeValueAsBytes(userPostDTO)))
+                .andExpect(status().isCreated())
+                .andExpect(content().contentType(UserController.SMILE));
+
+        ArgumentCaptor<User> userInput = ArgumentCaptor.forClass(User.class);
+        Mockito.verify(userService).createUser(userInput.capture());
+        assertEquals("testUsername", userInput.getValue().getUsername());
+    }
+
+    @Test
+    public void getUser_matchingETag_notModifiedWithoutLoading() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("testUsername");
+        user.setStatus(UserStatus.OFFLINE);
+        user.setVersion(3L);
+        given(userService.getUserVersion(1L)).willReturn(3L);
+        given(userService.getUserSummary(1L)).willReturn(UserSummary.of(user));
+
+        MvcResult result = mockMvc.perform(get("/users/1")).andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1-3-offline\"")).andReturn();
+
+        mockMvc.perform(get("/users/1").header(HttpHeaders.IF_NONE_MATCH, result.getResponse().getHeader(HttpHeaders.ETAG)))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        Mockito.verify(userService, Mockito.times(1)).getUserSummary(1L);
+
+        // a newer version means the copy of the client is outdated
+        user.setVersion(4L);
+        given(userService.getUserSummary(1L)).willReturn(UserSummary.of(user));
+        given(userService.getUserVersion(1L)).willReturn(4L);
+        mockMvc.perform(get("/users/1").header(HttpHeaders.IF_NONE_MATCH, "\"1-3-offline\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"1-4-offline\""));
+    }
+
+    @Test
+    public void getUser_cached_servedWithoutLoading() throws Exception {
+        given(userJsonCache.get(5L)).willReturn(new UserJsonCache.Entry("{\"id\":5,\"username\":\"cached\"}".getBytes(), "\"5-0-online\""));
+
+        mockMvc.perform(get("/users/5")).andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"5-0-online\""))
+                .andExpect(jsonPath("$.username", is("cached")));
+        mockMvc.perform(get("/users/5").header(HttpHeaders.IF_NONE_MATCH, "\"5-0-online\""))
+                .andExpect(status().isNotModified());
+        Mockito.verify(userService, Mockito.never()).getUserSummary(Mockito.any());
+        Mockito.verify(userService, Mockito.never()).getUserVersion(Mockito.any());
+    }
+
+    @Test
+    public void getUser_notCached_cachedAfterwards() throws Exception {
+        User user = new User();
+        user.setId(6L);
+        user.setUsername("testUsername");
+        user.setStatus(UserStatus.ONLINE);
+        user.setVersion(0L);
+        given(userService.getUserSummary(6L)).willReturn(UserSummary.of(user));
+
+        mockMvc.perform(get("/users/6")).andExpect(status().isOk())
+                .andExpect(jsonPath("$.username", is("testUsername")));
+
+        Mockito.verify(userJsonCache).put(Mockito.eq(6L), Mockito.any(), Mockito.eq("\"6-0-online\""), Mockito.any());
+    }
+
+    @Test
+    public void getUser_unknownId_stampReleased() throws Exception {
+        Object stamp = new Object();
+        given(userJsonCache.stamp(7L)).willReturn(stamp);
+        given(userService.getUserSummary(7L)).willThrow(new ResponseStatusException(HttpStatus.NOT_FOUND));
+
+        mockMvc.perform(get("/users/7")).andExpect(status().isNotFound());
+
+        Mockito.verify(userJsonCache).release(7L, stamp);
+        Mockito.verify(userJsonCache, Mockito.never()).put(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void getUsers_unchangedCounter_notModifiedWithoutQuery() throws Exception {
+        given(userChangeCounter.tag()).willReturn("epoch-5");
+
+        mockMvc.perform(get("/users").header(HttpHeaders.IF_NONE_MATCH, "\"epoch-5\""))
+                .andExpect(status().isNotModified());
+        Mockito.verify(userService, Mockito.never()).getUsers(Mockito.any(), Mockito.any(), Mockito.any());
+
+        given(userChangeCounter.tag()).willReturn("epoch-6");
+        given(userService.getUsers(UserSortOrder.ID, null, null)).willReturn(Collections.emptyList());
+        mockMvc.perform(get("/users").header(HttpHeaders.IF_NONE_MATCH, "\"epoch-5\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "W/\"epoch-6\""));
+    }
+
+    // the token authenticates its user, reading a user must not hand it out
+    @Test
+    public void getUsers_responsesContainNoToken() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setName("test User");
+        user.setUsername("testUsername");
+        user.setToken("token1");
+        user.setStatus(UserStatus.ONLINE);
+        given(userService.getUserSummary(1L)).willReturn(UserSummary.of(user));
+        given(userService.getUsers(UserSortOrder.ID, null, null)).willReturn(Collections.singletonList(UserSummary.of(user)));
+
+        mockMvc.perform(get("/users/1")).andExpect(status().isOk())
+                .andExpect(jsonPath("$.username", is("testUsername")))
+                .andExpect(jsonPath("$.token").doesNotExist());
+        mockMvc.perform(get("/users")).andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].username", is("testUsername")))
+                .andExpect(jsonPath("$[0].token").doesNotExist());
+    }
+
+    @Test
+    public void loginUser_returnsToken() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setName("Test User");
+        user.setUsername("testUsername");
+        user.setToken("token1");
+        user.setStatus(UserStatus.ONLINE);
+        given(userService.loginUser(Mockito.any())).willReturn(user);
+
+        mockMvc.perform(post("/users/login").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"username\": \"testUsername\", \"password\": \"password\"}"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.token", is("token1")));
+    }
+
+    // code 401 failed login, answered with a compact error body
+    @Test
+    public void loginUser_badPassword_compactError() throws Exception {
+        given(userService.loginUser(Mockito.any())).willThrow(AuthenticationFailureException.badPassword());
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setUsername("testUsername");
+        userPostDTO.setPassword("wrong");
+
+        mockMvc.perform(post("/users/login").contentType(MediaType.APPLICATION_JSON).content(asJsonString(userPostDTO)))
+                .andExpect(status().isUnauthorized())
+                .andExpect(jsonPath("$.status", is(401)))
+                .andExpect(jsonPath("$.error", is("bad_password")))
+                .andExpect(jsonPath("$.message", is("The password is not correct")));
+        AuthenticationFailureException failure = AuthenticationFailureException.badPassword();
+        assertEquals(0, failure.getStackTrace().length);
+        // every failure is an instance of its own, what is added to one never reaches another response
+        assertNotSame(failure, AuthenticationFailureException.badPassword());
+    }
+
     // code 404 get / users/{userID}
     @Test
     public void getUser_userDoesNotExist() throws Exception {
-        given(userService.getUserById(Mockito.anyLong())).willThrow(new ResponseStatusException(HttpStatus.NOT_FOUND));
+        given(userService.getUserSummary(Mockito.anyLong())).willThrow(new ResponseStatusException(HttpStatus.NOT_FOUND));
 
         MockHttpServletRequestBuilder getRequest = get("/users/3")
                 .contentType(MediaType.APPLICATION_JSON);
@@ -217,16 +577,168 @@ public class UserControllerTest {
         UserPutDTO userPutDTO = new UserPutDTO();
         userPutDTO.setUsername("new");
 
-        doNothing().when(userService).updateUser(Mockito.anyLong(),Mockito.any());
+        doNothing().when(userService).updateUser(Mockito.anyLong(),Mockito.any(),Mockito.any());
         userService.updateUser(1L,updatedUser);
+        given(sessionCache.resolve("token1")).willReturn(1L);
+
+        MockHttpServletRequestBuilder putRequest = put("/users/1")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer token1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(userPutDTO));
+
+        mockMvc.perform(putRequest)
+                .andExpect(status().isNoContent());
+
+    }
+
+    // 409 code update that lost against a concurrent update of the same user
+    @Test
+    public void updateUser_concurrentUpdate_conflict() throws Exception {
+        UserPutDTO userPutDTO = new UserPutDTO();
+        userPutDTO.setUsername("new");
+        given(sessionCache.resolve("token1")).willReturn(1L);
+        Mockito.doThrow(new ObjectOptimisticLockingFailureException(User.class, 1L))
+                .when(userService).updateUser(Mockito.anyLong(), Mockito.any(), Mockito.any());
+
+        MockHttpServletRequestBuilder putRequest = put("/users/1")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer token1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(userPutDTO));
+
+        mockMvc.perform(putRequest)
+                .andExpect(status().isConflict());
+    }
+
+    // 412 code for the same with If-Match, the version the client based its patch on is outdated
+    @Test
+    public void patchUser_concurrentUpdateWithIfMatch_preconditionFailed() throws Exception {
+        given(sessionCache.resolve("token1")).willReturn(1L);
+        Mockito.doThrow(new ObjectOptimisticLockingFailureException(User.class, 1L))
+                .when(userService).patchUser(Mockito.anyLong(), Mockito.any(), Mockito.any());
+
+        MockHttpServletRequestBuilder patchRequest = patch("/users/1")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer token1")
+                .header(HttpHeaders.IF_MATCH, "\"1-3-offline\"")
+                .contentType(UserController.MERGE_PATCH_VALUE)
+                .content("{\"username\": \"new\"}");
+
+        mockMvc.perform(patchRequest)
+                .andExpect(status().isPreconditionFailed());
+    }
+
+    // the service gets the versions the strong tags of this user in If-Match stand for
+    @Test
+    public void patchUser_ifMatch_versionsPassedOn() throws Exception {
+        given(sessionCache.resolve("token1")).willReturn(1L);
+
+        MockHttpServletRequestBuilder patchRequest = patch("/users/1")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer token1")
+                .header(HttpHeaders.IF_MATCH, "\"1-3-offline\", W/\"1-4-online\", \"2-5-online\", \"1-6-online-cbor\"")
+                .contentType(UserController.MERGE_PATCH_VALUE)
+                .content("{\"username\": \"new\"}");
+
+        mockMvc.perform(patchRequest)
+                .andExpect(status().isNoContent());
+        Mockito.verify(userService).patchUser(Mockito.eq(1L), Mockito.any(), Mockito.eq(new HashSet<>(Arrays.asList(3L, 6L))));
+    }
+
+    // "*" only asks for the user to exist, which the service checks anyway
+    @Test
+    public void ifMatchVersions_anyTag_noVersionCheck() {
+        assertNull(UserController.ifMatchVersions(1L, null));
+        assertNull(UserController.ifMatchVersions(1L, "\"1-3-offline\", *"));
+        assertTrue(UserController.ifMatchVersions(1L, "W/\"1-3-offline\", \"x-y-z\"").isEmpty());
+    }
+
+    // 401 code update without a valid token
+    @Test
+    public void updateUser_withoutToken_unauthorized() throws Exception {
+        UserPutDTO userPutDTO = new UserPutDTO();
+        userPutDTO.setUsername("new");
 
         MockHttpServletRequestBuilder putRequest = put("/users/1")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(asJsonString(userPutDTO));
 
         mockMvc.perform(putRequest)
+                .andExpect(status().isUnauthorized());
+        Mockito.verify(userService, Mockito.never()).updateUser(Mockito.anyLong(), Mockito.any(), Mockito.any());
+    }
+
+    // 403 code update of another user's profile
+    @Test
+    public void updateUser_tokenOfOtherUser_forbidden() throws Exception {
+        UserPutDTO userPutDTO = new UserPutDTO();
+        userPutDTO.setUsername("new");
+        given(sessionCache.resolve("token2")).willReturn(2L);
+
+        MockHttpServletRequestBuilder putRequest = put("/users/1")
+                .header(HttpHeaders.AUTHORIZATION, "token2")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(userPutDTO));
+
+        mockMvc.perform(putRequest)
+                .andExpect(status().isForbidden());
+        Mockito.verify(userService, Mockito.never()).updateUser(Mockito.anyLong(), Mockito.any(), Mockito.any());
+    }
+
+    // 200 code lookup of many users, unknown ids are reported as missing
+    @Test
+    public void lookupUsers_reportsMissingIds() throws Exception {
+        User user = new User();
+        user.setId(1L);
+        user.setName("Firstname Lastname");
+        user.setUsername("firstname@lastname");
+        user.setStatus(UserStatus.OFFLINE);
+        Map<Long, UserSummary> usersById = new LinkedHashMap<>();
+        usersById.put(1L, UserSummary.of(user));
+        given(userService.getUserSummaries(Arrays.asList(2L, 1L, 2L))).willReturn(usersById);
+
+        MockHttpServletRequestBuilder postRequest = post("/users/lookup")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[2, 1, 2]");
+
+        mockMvc.perform(postRequest)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.users", hasSize(1)))
+                .andExpect(jsonPath("$.users[0].username", is(user.getUsername())))
+                .andExpect(jsonPath("$.missing", hasSize(1)))
+                .andExpect(jsonPath("$.missing[0]", is(2)));
+    }
+
+    // 204 code merge patch that only removes the birthday
+    @Test
+    public void patchUser_onlyGivenFields() throws Exception {
+        given(sessionCache.resolve("token1")).willReturn(1L);
+
+        MockHttpServletRequestBuilder patchRequest = patch("/users/1")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer token1")
+                .contentType(UserController.MERGE_PATCH_VALUE)
+                .content("{\"birthday\": null}");
+
+        mockMvc.perform(patchRequest)
                 .andExpect(status().isNoContent());
 
+        ArgumentCaptor<UserPatch> userPatch = ArgumentCaptor.forClass(UserPatch.class);
+        Mockito.verify(userService).patchUser(Mockito.eq(1L), userPatch.capture(), Mockito.isNull());
+        assertNull(userPatch.getValue().getUsername());
+        assertTrue(userPatch.getValue().hasBirthday());
+        assertNull(userPatch.getValue().getBirthday());
+    }
+
+    // 400 code merge patch of a field that can not be patched
+    @Test
+    public void patchUser_unknownField_badRequest() throws Exception {
+        given(sessionCache.resolve("token1")).willReturn(1L);
+
+        MockHttpServletRequestBuilder patchRequest = patch("/users/1")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer token1")
+                .contentType(UserController.MERGE_PATCH_VALUE)
+                .content("{\"username\": \"new\", \"password\": \"secret\"}");
+
+        mockMvc.perform(patchRequest)
+                .andExpect(status().isBadRequest());
+        Mockito.verify(userService, Mockito.never()).patchUser(Mockito.anyLong(), Mockito.any(), Mockito.any());
     }
 
     // 404 code put via logout
@@ -239,9 +751,11 @@ public class UserControllerTest {
 
         //given
         given(userService.logoutUser(Mockito.any())).willThrow(new ResponseStatusException(HttpStatus.UNAUTHORIZED));
+        given(sessionCache.resolve("token2")).willReturn(2L);
 
         //when
         MockHttpServletRequestBuilder putRequest = put("/users/logout/2")
+                .header(HttpHeaders.AUTHORIZATION, "Bearer token2")
                 .contentType(MediaType.APPLICATION_JSON)
                 .content(asJsonString(userGetDTO));
 
@@ -0,0 +1,89 @@
+package ch.uzh.ifi.hase.soprafs22.controller;
+
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs22.service.UsernameIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Sends concurrent sign-ups for the same username over HTTP. Only the unique constraint of the
+ * username column can decide between them, every loser has to get a 409 and never a 500.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class UserCreationConcurrencyIntegrationTest {
+
+  private static final int PARALLEL_REQUESTS = 16;
+
+  @Autowired
+  private TestRestTemplate restTemplate;
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UsernameIndex usernameIndex;
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+    usernameIndex.clear();
+  }
+
+  @Test
+  public void createUser_parallelSameUsername_oneCreatedRestConflict() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(PARALLEL_REQUESTS);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<HttpStatus>> responses = new ArrayList<>();
+    try {
+      for (int i = 0; i < PARALLEL_REQUESTS; i++) {
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setName("Racer " + i);
+        userPostDTO.setUsername("racer");
+        userPostDTO.setPassword("password");
+
+        responses.add(executor.submit(() -> {
+          start.await();
+          return restTemplate.postForEntity("/users", userPostDTO, String.class).getStatusCode();
+        }));
+      }
+      start.countDown();
+
+      int created = 0;
+      int conflicts = 0;
+      for (Future<HttpStatus> response : responses) {
+        HttpStatus status = response.get();
+        if (status == HttpStatus.CREATED) {
+          created++;
+        }
+        else {
+          assertEquals(HttpStatus.CONFLICT, status);
+          conflicts++;
+        }
+      }
+
+      assertEquals(1, created);
+      assertEquals(PARALLEL_REQUESTS - 1, conflicts);
+      assertEquals(1, userRepository.count());
+      assertNotNull(userRepository.findByUsername("racer"));
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+}
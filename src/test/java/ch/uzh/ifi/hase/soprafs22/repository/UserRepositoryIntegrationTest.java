@@ -2,15 +2,21 @@ package ch.uzh.ifi.hase.soprafs22.repository;
 
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.entity.UserSummary;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @DataJpaTest
 public class UserRepositoryIntegrationTest {
@@ -49,4 +55,83 @@ public class UserRepositoryIntegrationTest {
     assertEquals(found.getStatus(), user.getStatus());
     assertEquals(found.getBirthday(), user.getBirthday());
   }
+
+  @Test
+  public void findPageOrderByUsernameAfter_continuesAfterCursor() {
+    // given
+    for (String username : new String[]{"charlie", "alice", "bravo"}) {
+      User user = new User();
+      user.setName(username);
+      user.setUsername(username);
+      user.setStatus(UserStatus.OFFLINE);
+      user.setCreation_date(new Date());
+      user.setPassword("password");
+      user.setToken(username + "-token");
+      entityManager.persist(user);
+    }
+    entityManager.flush();
+
+    // when
+    List<UserSummary> firstPage = userRepository.findPageOrderByUsername(PageRequest.of(0, 2));
+    UserSummary last = firstPage.get(firstPage.size() - 1);
+    List<UserSummary> secondPage = userRepository.findPageOrderByUsernameAfter(last.getUsername(), last.getId(), PageRequest.of(0, 2));
+
+    // then
+    assertEquals(2, firstPage.size());
+    assertEquals("alice", firstPage.get(0).getUsername());
+    assertEquals("bravo", firstPage.get(1).getUsername());
+    assertEquals(1, secondPage.size());
+    assertEquals("charlie", secondPage.get(0).getUsername());
+  }
+
+  @Test
+  public void findSummaryById_readsShownColumns() {
+    // given
+    User user = new User();
+    user.setName("Firstname Lastname");
+    user.setUsername("firstname@lastname");
+    user.setStatus(UserStatus.ONLINE);
+    user.setLogged_in(true);
+    user.setCreation_date(new Date());
+    user.setPassword("password");
+    user.setToken("1");
+    entityManager.persist(user);
+    entityManager.flush();
+
+    // when
+    UserSummary found = userRepository.findSummaryById(user.getId());
+
+    // then
+    assertEquals(user.getId(), found.getId());
+    assertEquals(user.getName(), found.getName());
+    assertEquals(user.getUsername(), found.getUsername());
+    assertEquals(UserStatus.ONLINE, found.getStatus());
+    assertTrue(found.getLogged_in());
+    assertEquals(0L, found.getVersion());
+    assertNull(userRepository.findSummaryById(user.getId() + 1));
+  }
+
+  @Test
+  public void updatePresence_writesStatusColumns() {
+    // given
+    User user = new User();
+    user.setName("Firstname Lastname");
+    user.setUsername("firstname@lastname");
+    user.setStatus(UserStatus.OFFLINE);
+    user.setCreation_date(new Date());
+    user.setPassword("password");
+    user.setToken("1");
+    entityManager.persist(user);
+    entityManager.flush();
+
+    // when
+    userRepository.updatePresence(Collections.singletonList(user.getId()), UserStatus.ONLINE, true);
+    entityManager.clear();
+
+    // then
+    User found = userRepository.findUserById(user.getId());
+    assertEquals(UserStatus.ONLINE, found.getStatus());
+    assertEquals(true, found.getLogged_in());
+    assertEquals(Collections.singletonList(user.getId()), userRepository.findIdsByStatus(UserStatus.ONLINE));
+  }
 }
@@ -0,0 +1,64 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PasswordHasherTest {
+
+  private PasswordHasher passwordHasher;
+
+  @BeforeEach
+  public void setup() {
+    passwordHasher = new PasswordHasher(1000, 2, 16);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    passwordHasher.shutdown();
+  }
+
+  @Test
+  public void hash_verify_success() {
+    String hash = passwordHasher.hash("password");
+
+    assertTrue(hash.startsWith("pbkdf2$1000$"));
+    assertNotEquals(hash, passwordHasher.hash("password"));
+    assertTrue(passwordHasher.verify("password", hash));
+    assertFalse(passwordHasher.verify("Password", hash));
+    assertFalse(passwordHasher.verify(null, hash));
+  }
+
+  @Test
+  public void verify_plainTextPassword_comparedAndRehashed() {
+    assertTrue(passwordHasher.verify("password", "password"));
+    assertFalse(passwordHasher.verify("other", "password"));
+    assertTrue(passwordHasher.needsRehash("password"));
+  }
+
+  @Test
+  public void needsRehash_otherCost_true() {
+    String cheaperHash = PasswordHasher.encode("password", 500);
+
+    assertTrue(passwordHasher.verify("password", cheaperHash));
+    assertTrue(passwordHasher.needsRehash(cheaperHash));
+    assertFalse(passwordHasher.needsRehash(passwordHasher.hash("password")));
+  }
+
+  @Test
+  public void hashAll_keepsOrder() {
+    List<String> rawPasswords = Arrays.asList("a", "b", null, "d", "e");
+
+    List<String> hashes = passwordHasher.hashAll(rawPasswords);
+
+    assertEquals(rawPasswords.size(), hashes.size());
+    assertNull(hashes.get(2));
+    assertTrue(PasswordHasher.matches("a", hashes.get(0)));
+    assertTrue(PasswordHasher.matches("e", hashes.get(4)));
+  }
+}
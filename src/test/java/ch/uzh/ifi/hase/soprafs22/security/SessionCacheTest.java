@@ -0,0 +1,79 @@
+package ch.uzh.ifi.hase.soprafs22.security;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.service.PresenceRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionCacheTest {
+
+  @Mock
+  private UserRepository userRepository;
+
+  private PresenceRegistry presenceRegistry;
+
+  private User user;
+
+  @BeforeEach
+  public void setup() {
+    MockitoAnnotations.openMocks(this);
+    presenceRegistry = new PresenceRegistry(userRepository, null);
+
+    user = new User();
+    user.setId(1L);
+    user.setToken("token");
+    user.setStatus(UserStatus.ONLINE);
+    Mockito.when(userRepository.findByToken("token")).thenReturn(user);
+  }
+
+  @Test
+  public void resolve_secondRequest_servedFromCache() {
+    SessionCache sessionCache = new SessionCache(userRepository, presenceRegistry, 300, 10);
+
+    assertEquals(1L, sessionCache.resolve("token"));
+    assertEquals(1L, sessionCache.resolve("token"));
+
+    Mockito.verify(userRepository, Mockito.times(1)).findByToken("token");
+    assertEquals(1, sessionCache.getHitCount());
+    assertEquals(1, sessionCache.getMissCount());
+  }
+
+  @Test
+  public void resolve_afterInvalidate_rejectsLoggedOutUser() {
+    SessionCache sessionCache = new SessionCache(userRepository, presenceRegistry, 300, 10);
+    sessionCache.resolve("token");
+
+    user.setStatus(UserStatus.OFFLINE);
+    sessionCache.invalidate("token");
+
+    assertNull(sessionCache.resolve("token"));
+    assertEquals(0, sessionCache.size());
+  }
+
+  @Test
+  public void resolve_loggedOutButNotFlushed_rejected() {
+    SessionCache sessionCache = new SessionCache(userRepository, presenceRegistry, 300, 10);
+
+    // the status column still says ONLINE until the presence registry is flushed
+    presenceRegistry.markOffline(1L);
+
+    assertNull(sessionCache.resolve("token"));
+  }
+
+  @Test
+  public void resolve_expiredSession_queriesAgain() {
+    SessionCache sessionCache = new SessionCache(userRepository, presenceRegistry, 0, 10);
+
+    sessionCache.resolve("token");
+    sessionCache.resolve("token");
+
+    Mockito.verify(userRepository, Mockito.times(2)).findByToken("token");
+  }
+}
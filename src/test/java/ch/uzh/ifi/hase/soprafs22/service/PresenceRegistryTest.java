@@ -0,0 +1,105 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.rest.dto.UserGetDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceRegistryTest {
+
+  @Mock
+  private UserRepository userRepository;
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
+  private PresenceRegistry presenceRegistry;
+
+  @BeforeEach
+  public void setup() {
+    MockitoAnnotations.openMocks(this);
+    presenceRegistry = new PresenceRegistry(userRepository, transactionManager);
+  }
+
+  @Test
+  public void flush_coalescesChangesIntoOneUpdatePerState() {
+    // when -> user 1 logs in and out again, user 2 and 3 log in
+    presenceRegistry.markOnline(1L);
+    presenceRegistry.markOnline(2L);
+    presenceRegistry.markOffline(1L);
+    presenceRegistry.markOnline(3L);
+    presenceRegistry.flush();
+
+    // then
+    Mockito.verify(userRepository).updatePresence(Arrays.asList(2L, 3L), UserStatus.ONLINE, true);
+    Mockito.verify(userRepository).updatePresence(Collections.singletonList(1L), UserStatus.OFFLINE, false);
+    assertEquals(0, presenceRegistry.pendingWrites());
+    assertEquals(Arrays.asList(2L, 3L), presenceRegistry.onlineUserIds());
+  }
+
+  @Test
+  public void flush_offlineUsersForgotten_onlineUsersKept() {
+    presenceRegistry.markOnline(1L);
+    presenceRegistry.markOnline(2L);
+    presenceRegistry.markOffline(1L);
+
+    presenceRegistry.flush();
+
+    // the stored state counts again for user 1
+    assertTrue(presenceRegistry.isOnline(1L, true));
+    assertTrue(presenceRegistry.isOnline(2L, false));
+  }
+
+  @Test
+  public void flush_failure_offlineUsersKept() {
+    Mockito.when(userRepository.updatePresence(Mockito.any(), Mockito.any(), Mockito.anyBoolean()))
+        .thenThrow(new IllegalStateException("database down"));
+    presenceRegistry.markOffline(1L);
+
+    presenceRegistry.flush();
+
+    assertFalse(presenceRegistry.isOnline(1L, true));
+  }
+
+  @Test
+  public void flush_nothingChanged_noUpdate() {
+    presenceRegistry.record(1L, true);
+    presenceRegistry.flush();
+
+    Mockito.verifyNoInteractions(userRepository);
+  }
+
+  @Test
+  public void flush_failure_keepsChangesForNextFlush() {
+    Mockito.when(userRepository.updatePresence(Mockito.any(), Mockito.any(), Mockito.anyBoolean()))
+        .thenThrow(new IllegalStateException("database down"));
+    presenceRegistry.markOnline(1L);
+
+    presenceRegistry.flush();
+
+    assertEquals(1, presenceRegistry.pendingWrites());
+  }
+
+  @Test
+  public void applyTo_overridesStoredStatus() {
+    UserGetDTO userGetDTO = new UserGetDTO();
+    userGetDTO.setId(1L);
+    userGetDTO.setStatus(UserStatus.OFFLINE);
+    presenceRegistry.markOnline(1L);
+
+    presenceRegistry.applyTo(userGetDTO);
+
+    assertEquals(UserStatus.ONLINE, userGetDTO.getStatus());
+    assertTrue(userGetDTO.getLogged_in());
+  }
+}
@@ -0,0 +1,118 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserJsonCacheTest {
+
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Test
+  public void get_afterPut_returnsBytesAndETag() {
+    UserJsonCache userJsonCache = new UserJsonCache(10, meterRegistry);
+
+    userJsonCache.put(1L, "{\"id\":1}".getBytes(), "\"1-0-online\"", userJsonCache.stamp(1L));
+
+    UserJsonCache.Entry entry = userJsonCache.get(1L);
+    assertArrayEquals("{\"id\":1}".getBytes(), entry.getJson());
+    assertEquals("\"1-0-online\"", entry.getETag());
+    assertEquals(1, userJsonCache.getHitCount());
+    assertEquals(1.0, meterRegistry.get("users.json-cache.gets").tag("result", "hit").functionCounter().count());
+  }
+
+  @Test
+  public void put_invalidatedSinceStamp_notCached() {
+    UserJsonCache userJsonCache = new UserJsonCache(10, meterRegistry);
+    Object stamp = userJsonCache.stamp(1L);
+
+    // the user changed while the response was built
+    userJsonCache.invalidate(1L);
+    userJsonCache.put(1L, "{\"id\":1}".getBytes(), "\"1-0-online\"", stamp);
+
+    assertNull(userJsonCache.get(1L));
+    assertEquals(1, userJsonCache.getMissCount());
+    assertEquals(1.0, meterRegistry.get("users.json-cache.gets").tag("result", "miss").functionCounter().count());
+  }
+
+  @Test
+  public void put_invalidatedAndStampedAgain_notCached() {
+    UserJsonCache userJsonCache = new UserJsonCache(10, meterRegistry);
+    Object stamp = userJsonCache.stamp(1L);
+
+    userJsonCache.invalidate(1L);
+    // a later reader is building the response of the changed user
+    Object laterStamp = userJsonCache.stamp(1L);
+    userJsonCache.put(1L, "{\"id\":1}".getBytes(), "\"1-0-online\"", stamp);
+
+    assertNull(userJsonCache.get(1L));
+    userJsonCache.put(1L, "{\"id\":1}".getBytes(), "\"1-1-online\"", laterStamp);
+    assertEquals("\"1-1-online\"", userJsonCache.get(1L).getETag());
+  }
+
+  @Test
+  public void put_otherUserInvalidatedSinceStamp_cached() {
+    UserJsonCache userJsonCache = new UserJsonCache(10, meterRegistry);
+    Object stamp = userJsonCache.stamp(1L);
+
+    userJsonCache.invalidate(2L);
+    userJsonCache.put(1L, "{\"id\":1}".getBytes(), "\"1-0-online\"", stamp);
+
+    assertNotNull(userJsonCache.get(1L));
+  }
+
+  @Test
+  public void get_pendingStamp_miss() {
+    UserJsonCache userJsonCache = new UserJsonCache(10, meterRegistry);
+    userJsonCache.stamp(1L);
+
+    assertNull(userJsonCache.get(1L));
+    assertEquals(1, userJsonCache.getMissCount());
+  }
+
+  @Test
+  public void release_pendingStamp_removed() {
+    UserJsonCache userJsonCache = new UserJsonCache(10, meterRegistry);
+    Object stamp = userJsonCache.stamp(1L);
+
+    // the user does not exist
+    userJsonCache.release(1L, stamp);
+
+    assertEquals(0, userJsonCache.size());
+  }
+
+  @Test
+  public void release_stampReplaced_entryKept() {
+    UserJsonCache userJsonCache = new UserJsonCache(10, meterRegistry);
+    Object stamp = userJsonCache.stamp(1L);
+    userJsonCache.put(1L, "{\"id\":1}".getBytes(), "\"1-0-online\"", userJsonCache.stamp(1L));
+
+    userJsonCache.release(1L, stamp);
+
+    assertNotNull(userJsonCache.get(1L));
+  }
+
+  @Test
+  public void invalidate_removesEntry() {
+    UserJsonCache userJsonCache = new UserJsonCache(10, meterRegistry);
+    userJsonCache.put(1L, "{\"id\":1}".getBytes(), "\"1-0-online\"", userJsonCache.stamp(1L));
+
+    userJsonCache.invalidate(1L);
+
+    assertNull(userJsonCache.get(1L));
+  }
+
+  @Test
+  public void put_full_evictsToMaxSize() {
+    UserJsonCache userJsonCache = new UserJsonCache(2, meterRegistry);
+
+    for (long id = 1; id <= 5; id++)
+    {
+      userJsonCache.put(id, "{}".getBytes(), "\"" + id + "\"", userJsonCache.stamp(id));
+    }
+
+    assertEquals(2, userJsonCache.size());
+  }
+}
@@ -8,9 +8,13 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.util.Arrays;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -29,9 +33,13 @@ public class UserServiceIntegrationTest {
   @Autowired
   private UserService userService;
 
+  @Autowired
+  private UsernameIndex usernameIndex;
+
   @BeforeEach
   public void setup() {
     userRepository.deleteAll();
+    usernameIndex.clear();
   }
 
   @Test
@@ -74,4 +82,36 @@ public class UserServiceIntegrationTest {
     // check that an error is thrown
     assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser2));
   }
+
+  @Test
+  public void createUsers_mixedBatch_reportsEveryUser() {
+    // given -> "taken" already exists
+    userService.createUser(newUser("taken"));
+
+    User missingPassword = newUser("incomplete");
+    missingPassword.setPassword(null);
+
+    // when
+    List<UserCreationResult> results = userService.createUsers(Arrays.asList(
+        newUser("first"), newUser("taken"), newUser("second"), newUser("first"), missingPassword));
+
+    // then
+    assertEquals(HttpStatus.CREATED, results.get(0).getStatus());
+    assertEquals(HttpStatus.CONFLICT, results.get(1).getStatus());
+    assertEquals(HttpStatus.CREATED, results.get(2).getStatus());
+    assertEquals(HttpStatus.CONFLICT, results.get(3).getStatus());
+    assertEquals(HttpStatus.BAD_REQUEST, results.get(4).getStatus());
+    assertNotNull(results.get(0).getUser().getId());
+    assertNotNull(userRepository.findByUsername("second"));
+    assertNull(userRepository.findByUsername("incomplete"));
+    assertEquals(3, userRepository.count());
+  }
+
+  private User newUser(String username) {
+    User user = new User();
+    user.setName(username);
+    user.setUsername(username);
+    user.setPassword("password");
+    return user;
+  }
 }
@@ -2,17 +2,30 @@ package ch.uzh.ifi.hase.soprafs22.service;
 
 import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.entity.UserSummary;
 import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.security.PasswordHasher;
+import ch.uzh.ifi.hase.soprafs22.security.SessionCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 
+import org.springframework.http.HttpStatus;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -21,6 +34,30 @@ public class UserServiceTest {
   @Mock
   private UserRepository userRepository;
 
+  @Spy
+  private UsernameIndex usernameIndex = new UsernameIndex(100);
+
+  @Mock
+  private SessionCache sessionCache;
+
+  @Mock
+  private PresenceRegistry presenceRegistry;
+
+  @Mock
+  private PasswordHasher passwordHasher;
+
+  @Spy
+  private UserChangeCounter userChangeCounter = new UserChangeCounter();
+
+  @Spy
+  private UserJsonCache userJsonCache = new UserJsonCache(100, new SimpleMeterRegistry());
+
+  @Spy
+  private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Mock
+  private PlatformTransactionManager transactionManager;
+
   @InjectMocks
   private UserService userService;
 
@@ -44,6 +81,8 @@ public class UserServiceTest {
     // when -> any object is being save in the userRepository -> return the dummy
     // testUser
     Mockito.when(userRepository.save(Mockito.any())).thenReturn(testUser);
+    Mockito.when(passwordHasher.hash(Mockito.anyString())).thenReturn("pbkdf2$1$c2FsdA==$aGFzaA==");
+    Mockito.when(passwordHasher.verify(Mockito.any(), Mockito.any())).thenReturn(true);
   }
 
   @Test
@@ -103,6 +142,43 @@ public class UserServiceTest {
         assertEquals(userRepository.findByUsername("testUsername").getStatus(), UserStatus.ONLINE);
      }
 
+    @Test
+    public void loginUser_wrongPassword_unauthorized(){
+        Mockito.when(userRepository.findByUsername(Mockito.any())).thenReturn(testUser);
+        Mockito.when(passwordHasher.verify(Mockito.any(), Mockito.any())).thenReturn(false);
+
+        assertThrows(ResponseStatusException.class, () -> userService.loginUser(testUser));
+        Mockito.verify(presenceRegistry, Mockito.never()).markOnline(Mockito.any());
+    }
+
+    @Test
+    public void loginUser_countedByResult(){
+        Mockito.when(userRepository.findByUsername("testUsername")).thenReturn(testUser);
+
+        userService.loginUser(testUser);
+        Mockito.when(passwordHasher.verify(Mockito.any(), Mockito.any())).thenReturn(false);
+        assertThrows(ResponseStatusException.class, () -> userService.loginUser(testUser));
+        User unknownUser = new User();
+        unknownUser.setUsername("unknown");
+        unknownUser.setPassword("password");
+        assertThrows(ResponseStatusException.class, () -> userService.loginUser(unknownUser));
+
+        assertEquals(1.0, meterRegistry.get("users.logins").tag("result", "success").counter().count());
+        assertEquals(1.0, meterRegistry.get("users.logins").tag("result", "bad_password").counter().count());
+        assertEquals(1.0, meterRegistry.get("users.logins").tag("result", "unknown_user").counter().count());
+    }
+
+    @Test
+    public void loginUser_outdatedHash_rehashed(){
+        Mockito.when(userRepository.findByUsername(Mockito.any())).thenReturn(testUser);
+        Mockito.when(passwordHasher.needsRehash("password")).thenReturn(true);
+        Mockito.when(userRepository.updatePassword(1L, "password", "pbkdf2$1$c2FsdA==$aGFzaA==")).thenReturn(1);
+
+        User loggedIn = userService.loginUser(testUser);
+
+        assertEquals("pbkdf2$1$c2FsdA==$aGFzaA==", loggedIn.getPassword());
+    }
+
     @Test
     public void testLoginUserAlreadyIn(){
 
@@ -144,6 +220,72 @@ public class UserServiceTest {
         assertThrows(ResponseStatusException.class, () -> userService.updateUser(testUser.getId(),user1));
 
         }
+
+  @Test
+  public void getUserSummaries_oneQueryPerChunk_inRequestOrder() {
+    List<Long> ids = new ArrayList<>();
+    for (long id = UserService.LOOKUP_CHUNK_SIZE + 10; id > 0; id--) {
+      ids.add(id);
+    }
+    Mockito.when(userRepository.findSummariesByIdIn(Mockito.any())).thenAnswer(invocation -> {
+      List<UserSummary> found = new ArrayList<>();
+      for (Long id : invocation.<Collection<Long>>getArgument(0)) {
+        // only even ids exist
+        if (id % 2 == 0) {
+          found.add(new UserSummary(id, "name", "user" + id, null, new Date(), UserStatus.OFFLINE, false, 0L));
+        }
+      }
+      return found;
+    });
+
+    Map<Long, UserSummary> summaries = userService.getUserSummaries(ids);
+
+    Mockito.verify(userRepository, Mockito.times(2)).findSummariesByIdIn(Mockito.any());
+    assertEquals((UserService.LOOKUP_CHUNK_SIZE + 10) / 2, summaries.size());
+    assertEquals(Long.valueOf(UserService.LOOKUP_CHUNK_SIZE + 10), summaries.keySet().iterator().next());
+  }
+
+  @Test
+  public void patchUser_unchangedUsername_noUniquenessCheck() {
+    Mockito.when(userRepository.findUserById(1L)).thenReturn(testUser);
+    UserPatch patch = new UserPatch();
+    patch.setUsername("testUsername");
+
+    userService.patchUser(1L, patch);
+
+    Mockito.verify(usernameIndex, Mockito.never()).contains(Mockito.any());
+    Mockito.verify(userRepository, Mockito.never()).findByUsername(Mockito.any());
+    Mockito.verify(userRepository, Mockito.never()).flush();
+  }
+
+  @Test
+  public void patchUser_birthdayOnly_keepsUsername() {
+    Mockito.when(userRepository.findUserById(1L)).thenReturn(testUser);
+    UserPatch patch = new UserPatch();
+    patch.setBirthday(null);
+
+    userService.patchUser(1L, patch);
+
+    assertEquals("testUsername", testUser.getUsername());
+    assertNull(testUser.getBirthday());
+    Mockito.verify(userRepository).flush();
+    Mockito.verify(userRepository, Mockito.never()).save(Mockito.any());
+  }
+
+  @Test
+  public void patchUser_otherVersionInIfMatch_preconditionFailed() {
+    testUser.setVersion(4L);
+    Mockito.when(userRepository.findUserById(1L)).thenReturn(testUser);
+    UserPatch patch = new UserPatch();
+    patch.setUsername("new");
+
+    ResponseStatusException ex = assertThrows(ResponseStatusException.class,
+        () -> userService.patchUser(1L, patch, Collections.singleton(3L)));
+
+    assertEquals(HttpStatus.PRECONDITION_FAILED, ex.getStatus());
+    assertEquals("testUsername", testUser.getUsername());
+    Mockito.verify(userRepository, Mockito.never()).flush();
+  }
     //@Test
     //    public void checkifUserExistsTest() {
     //        // given -> a first user has already been created
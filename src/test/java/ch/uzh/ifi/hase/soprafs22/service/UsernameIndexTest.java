@@ -0,0 +1,61 @@
+package ch.uzh.ifi.hase.soprafs22.service;
+
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UsernameIndexTest {
+
+  private static UserRepository.UsernameEntry entry(Long id, String username) {
+    return new UserRepository.UsernameEntry() {
+      @Override
+      public Long getId() {return id;}
+
+      @Override
+      public String getUsername() {return username;}
+    };
+  }
+
+  @Test
+  public void warmUp_allUsersFit_answersNegativeLookups() {
+    UsernameIndex usernameIndex = new UsernameIndex(10);
+
+    usernameIndex.warmUp(Stream.of(entry(1L, "alice"), entry(2L, "bob")));
+
+    assertTrue(usernameIndex.isComplete());
+    assertEquals(UsernameIndex.Presence.PRESENT, usernameIndex.contains("alice"));
+    assertEquals(UsernameIndex.Presence.ABSENT, usernameIndex.contains("carol"));
+    assertEquals(2, usernameIndex.getHitCount());
+    assertEquals(0, usernameIndex.getMissCount());
+  }
+
+  @Test
+  public void put_overMaxSize_evictsAndFallsBackToDatabase() {
+    UsernameIndex usernameIndex = new UsernameIndex(2);
+    usernameIndex.warmUp(Stream.empty());
+
+    usernameIndex.put(1L, "alice");
+    usernameIndex.put(2L, "bob");
+    usernameIndex.put(3L, "carol");
+
+    assertFalse(usernameIndex.isComplete());
+    assertEquals(2, usernameIndex.size());
+    assertEquals(UsernameIndex.Presence.UNKNOWN, usernameIndex.contains("alice"));
+    assertEquals(UsernameIndex.Presence.PRESENT, usernameIndex.contains("carol"));
+    assertEquals(1, usernameIndex.getMissCount());
+  }
+
+  @Test
+  public void put_renamedUser_releasesOldUsername() {
+    UsernameIndex usernameIndex = new UsernameIndex(10);
+    usernameIndex.warmUp(Stream.of(entry(1L, "alice")));
+
+    usernameIndex.put(1L, "alicia");
+
+    assertEquals(UsernameIndex.Presence.ABSENT, usernameIndex.contains("alice"));
+    assertEquals(1L, usernameIndex.idOf("alicia"));
+  }
+}
@@ -0,0 +1,218 @@
+package ch.uzh.ifi.hase.soprafs22.sharding;
+
+import ch.uzh.ifi.hase.soprafs22.constant.UserSortOrder;
+import ch.uzh.ifi.hase.soprafs22.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.entity.UserSummary;
+import ch.uzh.ifi.hase.soprafs22.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs22.service.UserCursor;
+import ch.uzh.ifi.hase.soprafs22.service.UserPatch;
+import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {
+    "users.sharding.urls=jdbc:h2:mem:sharding0,jdbc:h2:mem:sharding1,jdbc:h2:mem:sharding2",
+    "spring.jpa.open-in-view=false",
+    "users.password.iterations=1000"})
+public class ShardingIntegrationTest {
+
+  @Autowired
+  private UserService userService;
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserShards userShards;
+
+  @Autowired
+  private ShardRoutingDataSource shardRoutingDataSource;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+  }
+
+  @Test
+  public void createUser_storedOnShardOfUsername() {
+    Set<Integer> usedShards = new HashSet<>();
+    for (int i = 0; i < 12; i++) {
+      User user = userService.createUser(newUser("placed" + i));
+      int shard = userShards.shardOf(user.getUsername());
+      usedShards.add(shard);
+
+      assertEquals(shard, userShards.shardOf(user.getId()));
+      assertEquals(shard, userShards.shardOfToken(user.getToken()));
+      for (int other = 0; other < userShards.count(); other++) {
+        assertEquals(other == shard ? 1 : 0, rowsWithUsername(other, user.getUsername()));
+        assertEquals(other == shard ? 1 : 0, claimsOf(other, user.getUsername()));
+      }
+      assertEquals(user.getId(), userRepository.findByToken(user.getToken()).getId());
+      assertEquals(user.getUsername(), userService.getUserById(user.getId()).getUsername());
+    }
+    assertTrue(usedShards.size() > 1);
+    assertEquals(12L, userRepository.count());
+  }
+
+  @Test
+  public void userRepository_everyMethodRouted() {
+    assertTrue(ShardingRepositoryAspect.unroutedMethods(UserRepository.class).isEmpty());
+    assertEquals(Collections.singleton("findByName"), ShardingRepositoryAspect.unroutedMethods(UnroutedRepository.class));
+  }
+
+  @Test
+  public void getUsers_pagesOfAllShardsMergedInSortOrder() {
+    List<String> usernames = Arrays.asList("delta", "alpha", "echo", "charlie", "bravo", "golf", "foxtrot", "hotel");
+    for (String username : usernames) {
+      userService.createUser(newUser(username));
+    }
+
+    for (UserSortOrder sortOrder : new UserSortOrder[]{UserSortOrder.ID, UserSortOrder.USERNAME}) {
+      List<UserSummary> listed = new ArrayList<>();
+      String after = null;
+      List<UserSummary> page;
+      do {
+        page = userService.getUsers(sortOrder, after, 3);
+        listed.addAll(page);
+        after = page.isEmpty() ? null : UserCursor.of(sortOrder, page.get(page.size() - 1)).encode();
+      } while (page.size() == 3);
+
+      assertEquals(usernames.size(), listed.size());
+      for (int i = 1; i < listed.size(); i++) {
+        UserSummary previous = listed.get(i - 1);
+        UserSummary current = listed.get(i);
+        if (sortOrder == UserSortOrder.ID) {
+          assertTrue(previous.getId() < current.getId());
+        } else {
+          assertTrue(previous.getUsername().compareTo(current.getUsername()) < 0);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void renamedUser_foundByNewUsername() {
+    User user = userService.createUser(newUser("renamed0"));
+    String newUsername = null;
+    // a name on another shard than the one the user is stored on
+    for (int i = 1; newUsername == null; i++) {
+      if (userShards.shardOf("renamed" + i) != userShards.shardOf(user.getId())) {
+        newUsername = "renamed" + i;
+      }
+    }
+    UserPatch patch = new UserPatch();
+    patch.setUsername(newUsername);
+    userService.patchUser(user.getId(), patch);
+
+    User found = userRepository.findByUsername(newUsername);
+    assertNotNull(found);
+    assertEquals(user.getId(), found.getId());
+    assertNull(userRepository.findByUsername("renamed0"));
+    // the claim moved to the shard of the new username, the user stayed
+    assertEquals(1, claimsOf(userShards.shardOf(newUsername), newUsername));
+    assertEquals(0, claimsOf(userShards.shardOf("renamed0"), "renamed0"));
+  }
+
+  @Test
+  public void claimUsername_takenOnAnotherShard_conflict() {
+    User owner = userService.createUser(newUser("claimed0"));
+    User other = null;
+    for (int i = 1; other == null; i++) {
+      if (userShards.shardOf("claimer" + i) != userShards.shardOf(owner.getId())) {
+        other = userService.createUser(newUser("claimer" + i));
+      }
+    }
+    Long otherId = other.getId();
+    String otherUsername = other.getUsername();
+
+    // the unique constraint of the other user's shard does not see the owner
+    assertThrows(DataIntegrityViolationException.class, () -> userRepository.claimUsername(otherId, otherUsername, "claimed0"));
+    assertEquals(owner.getId(), userRepository.findByUsername("claimed0").getId());
+    assertEquals(1, claimsOf(userShards.shardOf(otherUsername), otherUsername));
+  }
+
+  @Test
+  public void saveAll_severalShardsRolledBack_undoneOnEveryShard() {
+    List<User> users = new ArrayList<>();
+    Set<Integer> usedShards = new HashSet<>();
+    for (int i = 0; usedShards.size() < userShards.count(); i++) {
+      User user = newUser("undone" + i);
+      user.setToken("token-undone" + i);
+      user.setStatus(UserStatus.ONLINE);
+      user.setCreation_date(new Date());
+      users.add(user);
+      usedShards.add(userShards.shardOf(user.getUsername()));
+    }
+
+    new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+      userRepository.saveAll(users);
+      userRepository.flush();
+      status.setRollbackOnly();
+    });
+
+    assertEquals(0L, userRepository.count());
+    for (int shard = 0; shard < userShards.count(); shard++) {
+      for (User user : users) {
+        assertEquals(0, claimsOf(shard, user.getUsername()));
+      }
+    }
+  }
+
+  @Test
+  public void getUserSummaries_idsOfSeveralShards_inRequestOrder() {
+    List<Long> ids = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      ids.add(0, userService.createUser(newUser("lookup" + i)).getId());
+    }
+
+    Map<Long, UserSummary> summaries = userService.getUserSummaries(ids);
+
+    assertEquals(ids, new ArrayList<>(summaries.keySet()));
+  }
+
+  private int rowsWithUsername(int shard, String username) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(shardRoutingDataSource.getShard(shard));
+    return jdbcTemplate.queryForObject("select count(*) from \"user\" where username = ?", Integer.class, username);
+  }
+
+  private int claimsOf(int shard, String username) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(shardRoutingDataSource.getShard(shard));
+    return jdbcTemplate.queryForObject("select count(*) from USERNAME_CLAIM where username = ?", Integer.class, username);
+  }
+
+  private static User newUser(String username) {
+    User user = new User();
+    user.setName("Firstname Lastname");
+    user.setUsername(username);
+    user.setPassword("password");
+    return user;
+  }
+
+  // a repository method the aspect does not know
+  private interface UnroutedRepository extends UserRepository {
+    User findByName(String name);
+  }
+}
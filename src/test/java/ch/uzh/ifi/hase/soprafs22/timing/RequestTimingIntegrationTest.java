@@ -0,0 +1,85 @@
+package ch.uzh.ifi.hase.soprafs22.timing;
+
+import ch.uzh.ifi.hase.soprafs22.entity.User;
+import ch.uzh.ifi.hase.soprafs22.service.UserService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.List;
+
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:timing",
+    "users.password.iterations=1000",
+    "users.timing.enabled=true",
+    "users.timing.slow-threshold-ms=0"})
+@AutoConfigureMockMvc
+public class RequestTimingIntegrationTest {
+
+  @Autowired
+  private MockMvc mockMvc;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private SlowRequestLog slowRequestLog;
+
+  @Test
+  public void getUser_serverTimingOfEveryLayer() throws Exception {
+    User user = new User();
+    user.setName("testName");
+    user.setUsername("timed");
+    user.setPassword("password");
+    Long id = userService.createUser(user).getId();
+
+    mockMvc.perform(get("/users/" + id))
+        .andExpect(status().isOk())
+        .andExpect(header().string(ServerTimingFilter.SERVER_TIMING_HEADER, allOf(
+            containsString("total;dur="),
+            containsString("binding;dur="),
+            containsString("controller;dur="),
+            containsString("mapper;dur="),
+            containsString("service;dur="),
+            containsString("repo.findSummaryById;dur="),
+            containsString("commit;dur="),
+            containsString("write;dur="))));
+
+    List<SlowRequest> slowRequests = slowRequestLog.getRequests();
+    assertEquals("/users/" + id, slowRequests.get(0).getUri());
+    assertEquals(200, slowRequests.get(0).getStatus());
+    assertTrue(slowRequests.get(0).getPhaseMillis().containsKey("service"));
+  }
+
+  @Test
+  public void exportUsers_serverTimingBeforeStream_bodyNotHeldBack() throws Exception {
+    User user = new User();
+    user.setName("testName");
+    user.setUsername("exported");
+    user.setPassword("password");
+    userService.createUser(user);
+
+    // the header goes out when the handler starts the stream
+    MvcResult result = mockMvc.perform(get("/users/export"))
+        .andExpect(request().asyncStarted())
+        .andExpect(header().string(ServerTimingFilter.SERVER_TIMING_HEADER, containsString("controller;dur=")))
+        .andReturn();
+
+    mockMvc.perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(content().string(containsString("\"username\":\"exported\"")));
+  }
+}
@@ -0,0 +1,39 @@
+package ch.uzh.ifi.hase.soprafs22.timing;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SlowRequestLogTest {
+
+  @Test
+  public void full_replacesOldest() {
+    SlowRequestLog slowRequestLog = new SlowRequestLog(0, 2);
+
+    for (int i = 1; i <= 3; i++) {
+      RequestTimings timings = RequestTimings.begin();
+      timings.end();
+      slowRequestLog.offer("GET", "/users/" + i, 200, timings);
+    }
+
+    List<SlowRequest> requests = slowRequestLog.getRequests();
+    assertEquals(2, requests.size());
+    assertEquals("/users/3", requests.get(0).getUri());
+    assertEquals("/users/2", requests.get(1).getUri());
+    assertEquals(3, slowRequestLog.getCount());
+  }
+
+  @Test
+  public void belowThreshold_notKept() {
+    SlowRequestLog slowRequestLog = new SlowRequestLog(60_000, 2);
+    RequestTimings timings = RequestTimings.begin();
+    timings.end();
+
+    slowRequestLog.offer("GET", "/users", 200, timings);
+
+    assertTrue(slowRequestLog.getRequests().isEmpty());
+    assertNull(RequestTimings.current());
+  }
+}